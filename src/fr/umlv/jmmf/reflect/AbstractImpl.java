@@ -48,6 +48,7 @@ abstract class AbstractImpl extends Impl {
   public AbstractImpl(String name,int argLength,TypeSupport typeSupport) {
     this(name,argLength,typeSupport,new MethodMap(),
       new DAGHierarchy(),new MultiMethodMap());
+    multiMethodMap.impl=this;
   }
 
   /**
@@ -55,6 +56,8 @@ abstract class AbstractImpl extends Impl {
   public AbstractImpl(AbstractImpl impl) {
     this(impl.name,impl.argLength,impl.typeSupport,impl.methodMap,
       impl.hierarchy,impl.multiMethodMap);
+    this.frozen=impl.frozen;
+    this.loaders=impl.loaders;
   }
 
   /** return the name of the multi-method.
@@ -82,28 +85,90 @@ abstract class AbstractImpl extends Impl {
     return typeSupport;
   }
 
+  /** return the lock, the multi-method map that
+      is shared by all upgrades.
+   */
+  public Object getLock() {
+    return multiMethodMap;
+  }
+
   /** return the multi-method of a given class for a type support.
    */
   public MultiMethod getMultiMethod(Class clazz,boolean onlyPublic) {
     MultiMethod mm=multiMethodMap.get(clazz,onlyPublic);
     if (mm==null) {
-      mm=new MultiMethod(this,onlyPublic);
+      addLoader(clazz.getClassLoader());
+      mm=new MultiMethod(multiMethodMap,onlyPublic);
       multiMethodMap.put(clazz,mm);
-      mm.init(clazz);
+      try {
+        mm.init(clazz);
+      } catch(IllegalArgumentException e) {
+        // don't keep a multi-method without method
+        multiMethodMap.remove(clazz,mm);
+        throw e;
+      }
     }
     return mm;
   }
 
-  /** support method.
-      @see update
+  /** register the loader of a declaring class,
+      the classes it loads live as long as the multi-method.
    */
-  protected void update(Impl impl) {
-    MultiMethodMap.Iterator it=multiMethodMap.iterator();
-    for(MultiMethod mm;(mm=it.next())!=null;) {
-      // send an update message to change implementation
-      // for each MultiMethod
-      mm.update(impl);
-    }
+  private void addLoader(ClassLoader loader) {
+    ClassLoader[] loaders=this.loaders;
+    int length=loaders.length;
+    for(int i=length;--i>=0;)
+      if (loaders[i]==loader)
+        return;
+
+    ClassLoader[] newLoaders=new ClassLoader[length+1];
+    System.arraycopy(loaders,0,newLoaders,0,length);
+    newLoaders[length]=loader;
+    this.loaders=newLoaders;
+  }
+
+  /** return true if the class can't be unloaded before the
+      multi-methods, i.e. if it's loaded by the loader of
+      a declaring class or one of its parents.
+      The other classes are not stored in the tables.
+   */
+  public boolean isAnchored(Class clazz) {
+    ClassLoader loader=clazz.getClassLoader();
+    if (loader==null)
+      return true;
+
+    ClassLoader[] loaders=this.loaders;
+    for(int i=loaders.length;--i>=0;)
+      for(ClassLoader l=loaders[i];l!=null;l=l.getParent())
+        if (l==loader)
+          return true;
+    return false;
+  }
+
+  /** replace this implementation by a successor built from it.
+      Called while holding the lock. The multi-methods read
+      the implementation from the multi-method map, so they all
+      switch at once, a search that already read this
+      implementation ends with it.
+      @see #isStorable(Class)
+   */
+  protected void update(AbstractImpl impl) {
+    retired=true;
+
+    MultiMethodMap multiMethodMap=this.multiMethodMap;
+    multiMethodMap.impl=impl;
+    multiMethodMap.upgrades++;
+
+    UpgradeEvent.report(this,impl);
+  }
+
+  /** return true if the annotation of the class can be stored
+      in the tables, false if the class isn't anchored or if this
+      implementation was replaced, a late search mustn't change
+      the hierarchy it shares with its successor.
+   */
+  protected final boolean isStorable(Class clazz) {
+    return !retired && isAnchored(clazz);
   }
 
   protected NoSuchMethodException createNoSuchMethodException() {
@@ -166,6 +231,19 @@ abstract class AbstractImpl extends Impl {
   final String name;
   final int argLength;
 
+  /** true if freeze() was called.
+   */
+  protected boolean frozen;
+
+  /** true once replaced by an upgrade.
+   */
+  private boolean retired;
+
+  /** loaders of the declaring classes,
+      read without lock by the tuple caches.
+   */
+  private volatile ClassLoader[] loaders=new ClassLoader[0];
+
   protected final MethodMap methodMap;
   protected final DAGHierarchy hierarchy;
   protected final TypeSupport typeSupport;
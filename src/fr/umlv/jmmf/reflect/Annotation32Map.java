@@ -24,6 +24,22 @@
 package fr.umlv.jmmf.reflect;
 
 /** this class contains annotations.
+
+    An open addressing table, the classes and their annotations
+    are stored in two parallel arrays, so a lookup reads one slot
+    of each when there is no collision, with linear probing
+    otherwise.
+
+    Once published, the arrays are never resized and their classes
+    never move, put(), compact() and freeze() publish new arrays,
+    so get() and or() can be called without lock while a writer
+    holding the lock of the implementation inserts or removes
+    entries.
+
+    The classes that may be unloaded before the multi-method aren't
+    inserted in the table, they would never be collected, their
+    annotations are stored in a {@link WeakClassMap}.
+
     @author Remi Forax
     @version 0.9.0
  */
@@ -31,203 +47,231 @@ final class Annotation32Map {
   /**
    */
   public Annotation32Map() {
-    table=new Entry[16];
+    table=new Table(new Class[16],new int[16],0);
   }
 
-  /**
+  /** copy the entries of a table in new arrays of length
+      slots, skipping the ones with no bit set if compact is true.
    */
-  private void rehash() {
-    Entry oldMap[] = table;
-    int oldCapacity = oldMap.length;
-
-    int newCapacity = oldCapacity<<1;
-    Entry newMap[] = new Entry[newCapacity];
-    int mask=newCapacity-1;
-
-    for (int i = oldCapacity ; i-- > 0 ;) {
-      for (Entry old = oldMap[i] ; old != null ; ) {
-        Entry e = old;
-        old = old.next;
-
-        int index = e.clazz.hashCode() & mask;
-        //int index=(e.clazz.hashCode() & 0x7FFFFFFF) % newCapacity;
-        
-        e.next = newMap[index];
-        
-        //if (newMap[index]!=null)
-        //  System.err.println("collision ");
-        
-        newMap[index] = e;
+  private static Table rehash(Table tab,int length,int shift,
+    boolean compact) {
+    Class[] oldKeys=tab.keys;
+    int[] oldValues=tab.values;
+
+    Class[] keys=new Class[length];
+    int[] values=new int[length];
+    for (int i=oldKeys.length;--i>=0;) {
+      Class clazz=oldKeys[i];
+      if (clazz!=null && !(compact && oldValues[i]==0)) {
+        int index=freeSlot(keys,shift,clazz);
+        keys[index]=clazz;
+        values[index]=oldValues[i];
       }
     }
-    
-    this.table = newMap;
+    return new Table(keys,values,shift);
+  }
+
+  /** return the first free slot for the class.
+   */
+  private static int freeSlot(Class[] keys,int shift,Class clazz) {
+    int mask=keys.length-1;
+    int index=(clazz.hashCode()>>>shift) & mask;
+    while(keys[index]!=null)
+      index=(index+1) & mask;
+    return index;
   }
 
   /** the class mustn't be already inserted.
    */
   public void put(Class clazz,int bits)
   {
-    if (count > (table.length>>1) ) {
+    Table tab=table;
+    int length=tab.keys.length;
+    boolean rehash=count > (length>>1);
+    if (rehash) {
       // Rehash the table if the threshold is exceeded
-      rehash();
+      tab=rehash(tab,length<<1,0,false);
     }
+    else
+      tab=new Table(tab.keys.clone(),tab.values.clone(),
+        tab.shift);
 
-    Entry[] tab=table;
-    int index=clazz.hashCode() & (tab.length-1);
-    //int index=(clazz.hashCode() & 0x7FFFFFFF) % tab.length;
+    int index=freeSlot(tab.keys,tab.shift,clazz);
+    tab.keys[index]=clazz;
+    tab.values[index]=bits;
+    count++;
 
-    //if (tab[index]!=null)
-    //  System.err.println("collision "+clazz);
+    // publish
+    table=tab;
+    transients=null;
 
-    // Creates the new entry.
-    tab[index]=new Entry(clazz, bits, tab[index]);
-    count++;
+    // the classes have moved
+    if (rehash && frozen)
+      freeze();
   }
 
-  /** .
+  /** @return -1 if clazz has no annotation.
    */
   public int get(Class clazz) {
-    
-    /*
-    int index=clazz.hashCode() & mask;
-    Entry e = table[index]; 
-    while (true) {
-      if (e==null)
-        return -1;
-      if (e.clazz == clazz)
-        return e.bits;
-      e = e.next;
-    }*/
-    
-    /*
-    Entry[] tab=table;
-    //int index=(clazz.hashCode() & 0x7FFFFFFF) % tab.length;
-    int index=clazz.hashCode() & (tab.length-1);
-    Entry e = tab[index]; 
-    while (true) {
-      if (e==null)
-        return -1;
-      if (e.clazz == clazz)
-        return e.bits;
-      
-      e = e.next;
-    }*/
-    
-    Entry[] tab=table;
-    //int index=(clazz.hashCode() & 0x7FFFFFFF) % tab.length;
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e.bits;
-
-    return -1;
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.values[index];
+      if (key==null)
+        return getTransient(clazz);
+    }
   }
 
-
-  /*public int get(Class clazz) {
-    Entry[] tab=table;
-
-    try
-    {
-      Entry e=tab[clazz.hashCode() & mask];
-      for(;;e=e.next);
-        if (e.clazz==clazz)
-          return e.bits;
-
-    } catch(NullPointerException e) {
-      //e.printStackTrace();
-      return -1;
+  /** same as get() but ignores the classes stored by putTransient(),
+      the annotation of a class in the hierarchy must not depend on them.
+   */
+  public int getAnchored(Class clazz) {
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.values[index];
+      if (key==null)
+        return -1;
     }
-  }*/
+  }
 
   /** @return -1 if clazz has no annotation.
    */
   public int or(Class clazz,int bits) {
-    Entry[] tab=table;
-
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e.bits|=bits;
-        
-    return -1;
-
-    /*
-    Entry[] tab=table;
-    
-    int index=clazz.hashCode() & (tab.length-1);
-    //int index=(clazz.hashCode() & 0x7FFFFFFF) % tab.length;
-    
-    Entry e = tab[index]; 
-    while (true) {
-      if (e==null)
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz) {
+        transients=null;
+        return tab.values[index]|=bits;
+      }
+      if (key==null)
         return -1;
-      if (e.clazz == clazz)
-        return e.bits|=bits;
-      e = e.next;
-    }*/
+    }
+  }
+
+  /** return the annotation of a class stored by putTransient().
+   */
+  private int getTransient(Class clazz) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      return -1;
+    Integer bits=(Integer)transients.get(clazz);
+    return (bits==null)?-1:bits.intValue();
+  }
+
+  /** store the annotation of a class that may be unloaded before
+      the multi-method, computed from the ones of its supertypes.
+      The annotations stored this way are forgotten each time
+      put() or or() changes the annotations.
+   */
+  public void putTransient(Class clazz,int bits) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      this.transients=transients=new WeakClassMap();
+    transients.put(clazz,Integer.valueOf(bits));
   }
 
   /** remove entry with value 0.
    */
   public void compact() {
-    Entry[] tab=table;
-
-    for (int i=tab.length;--i>=0;) {
-      for (Entry e=tab[i],prev=null; e!=null;) {
-        if (e.bits==0) {
-          if (prev!=null)
-            e=prev.next=e.next;
-          else
-            e=tab[i]=e.next;
-
-          count--;
-        }
-        else {
-          prev=e;
-          e=e.next;
-        }
-      }
-    }
+    Table tab=table;
+    int[] values=tab.values;
+    Class[] keys=tab.keys;
+
+    int removed=0;
+    for (int i=keys.length;--i>=0;)
+      if (keys[i]!=null && values[i]==0)
+        removed++;
+
+    if (removed==0)
+      return;
+
+    count-=removed;
+
+    // publish
+    table=rehash(tab,keys.length,tab.shift,true);
+
+    // the classes have moved
+    if (frozen)
+      freeze();
+  }
+
+  /** place all classes in the first slot they are looked for,
+      if a table at most 8 times larger allows it.
+      The classes inserted after may still collide,
+      the table is placed again each time it is rehashed.
+   */
+  public void freeze() {
+    frozen=true;
+
+    Table tab=table;
+    int length=tab.keys.length;
+    PerfectHash hash=PerfectHash.find(tab.keys,length);
+    if (hash!=null)
+      table=rehash(tab,hash.getSize(),hash.getShift(),false);
   }
 
   /** DEBUG.
    */
   public void debug() {
-    Entry[] tab=table;
+    Table tab=table;
+    Class[] keys=tab.keys;
 
-    System.err.println("table length "+tab.length);
+    System.err.println("table length "+keys.length);
 
-    for (int i=tab.length;--i>=0;) {
-      for (Entry e=tab[i]; e!=null; e=e.next) {
-        System.err.println("index "+i+" "+e+" "+e.clazz+" "+new Bit32Mask(e.bits));
-      }
+    for (int i=keys.length;--i>=0;) {
+      if (keys[i]!=null)
+        System.err.println("index "+i+" "+keys[i]+" "+new Bit32Mask(tab.values[i]));
     }
   }
 
   /**
-   * HashMap collision list entry.
+   * The arrays of the hash table, both indexed alike.
+   * The values are only or-ed once published,
+   * a reader sees the old or the new value.
    */
-  static final class Entry {
-    final Class clazz;
-    int bits;
-    Entry next;
-
-    public Entry(Class clazz, int bits, Entry next) {
-      this.clazz=clazz;
-      this.bits=bits;
-      this.next=next;
+  static final class Table {
+    Table(Class[] keys,int[] values,int shift) {
+      this.keys=keys;
+      this.values=values;
+      this.shift=shift;
     }
+
+    final Class[] keys;
+    final int[] values;
+    final int shift;
   }
 
   /**
-   * The hash table data.
+   * The hash table data, replaced and never resized.
    */
-  Entry[] table;
+  volatile Table table;
+
+  /**
+   * The annotations of the classes that may be unloaded,
+   * null if there is none since the last change.
+   */
+  private volatile WeakClassMap transients;
 
   /**
    * The total number of mappings in the hash table.
    */
   int count;
+
+  /**
+   * True if the classes are placed by a perfect hash.
+   */
+  boolean frozen;
 }
@@ -23,7 +23,8 @@
 
 package fr.umlv.jmmf.reflect;
 
-/** this class contains annotations.
+/** this class contains annotations,
+    stored and published like in {@link Annotation32Map}.
     @author Remi Forax
     @version 0.9.0
  */
@@ -33,154 +34,242 @@ final class Annotation64Map {
   public Annotation64Map(Annotation32Map map) {
 
     count=map.count;
+    frozen=map.frozen;
 
-    // copy table
-    Annotation32Map.Entry[] tab=map.table;
-    int size=tab.length;
-    Entry[] table=new Entry[size];
+    // copy table, the classes keep their slots
+    Annotation32Map.Table tab=map.table;
+    int[] values32=tab.values;
+    int length=values32.length;
+    long[] values=new long[length];
+    for(int i=length;--i>=0;)
+      values[i]=values32[i];
 
-    for(int i=size;--i>=0;) {
-      Annotation32Map.Entry entry32=tab[i];
-
-      if (entry32==null)
-        continue;
+    this.table=new Table(tab.keys.clone(),values,tab.shift);
+  }
 
-      Entry lastEntry=table[i]=
-        new Entry(entry32.clazz,entry32.bits,null);
+  /** copy the entries of a table in new arrays of length
+      slots, skipping the ones with no bit set if compact is true.
+   */
+  private static Table rehash(Table tab,int length,int shift,
+    boolean compact) {
+    Class[] oldKeys=tab.keys;
+    long[] oldValues=tab.values;
 
-      for(entry32=entry32.next;entry32!=null;entry32=entry32.next) {
-        Entry e=new Entry(entry32.clazz,entry32.bits,null);
-        lastEntry.next=e;
-        lastEntry=e;
+    Class[] keys=new Class[length];
+    long[] values=new long[length];
+    for (int i=oldKeys.length;--i>=0;) {
+      Class clazz=oldKeys[i];
+      if (clazz!=null && !(compact && oldValues[i]==0)) {
+        int index=freeSlot(keys,shift,clazz);
+        keys[index]=clazz;
+        values[index]=oldValues[i];
       }
     }
-    this.table=table;
+    return new Table(keys,values,shift);
   }
 
-  /**
+  /** return the first free slot for the class.
    */
-  private void rehash() {
-    Entry oldMap[] = table;
-    int oldCapacity = oldMap.length;
-
-    int newCapacity = oldCapacity <<1;
-    Entry newMap[] = new Entry[newCapacity];
-    int mask=newCapacity-1;
-
-    for (int i = oldCapacity ; i-- > 0 ;) {
-      for (Entry old = oldMap[i] ; old != null ; ) {
-        Entry e = old;
-        old = old.next;
-
-        int index = e.clazz.hashCode() & mask;
-        e.next = newMap[index];
-        newMap[index] = e;
-      }
-    }
-    
-    this.table=newMap;
+  private static int freeSlot(Class[] keys,int shift,Class clazz) {
+    int mask=keys.length-1;
+    int index=(clazz.hashCode()>>>shift) & mask;
+    while(keys[index]!=null)
+      index=(index+1) & mask;
+    return index;
   }
 
   /** the class mustn't be already inserted.
    */
   public void put(Class clazz,long bits)
   {
-    if (count > (table.length>>1)) {
+    Table tab=table;
+    int length=tab.keys.length;
+    boolean rehash=count > (length>>1);
+    if (rehash) {
       // Rehash the table if the threshold is exceeded
-      rehash();
+      tab=rehash(tab,length<<1,0,false);
     }
+    else
+      tab=new Table(tab.keys.clone(),tab.values.clone(),
+        tab.shift);
 
-    Entry[] tab=table;
-    int index=clazz.hashCode() & (tab.length-1);
-
-    // Creates the new entry.
-    tab[index]=new Entry(clazz, bits, tab[index]);
+    int index=freeSlot(tab.keys,tab.shift,clazz);
+    tab.keys[index]=clazz;
+    tab.values[index]=bits;
     count++;
+
+    // publish
+    table=tab;
+    transients=null;
+
+    // the classes have moved
+    if (rehash && frozen)
+      freeze();
   }
 
-  /** .
+  /** @return -1 if clazz has no annotation.
    */
   public long get(Class clazz) {
-    Entry[] tab=table;
-
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e.bits;
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.values[index];
+      if (key==null)
+        return getTransient(clazz);
+    }
+  }
 
-    return -1;
+  /** same as get() but ignores the classes stored by putTransient(),
+      the annotation of a class in the hierarchy must not depend on them.
+   */
+  public long getAnchored(Class clazz) {
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.values[index];
+      if (key==null)
+        return -1L;
+    }
   }
 
   /** @return -1 if clazz has no annotation.
    */
   public long or(Class clazz,long bits) {
-    Entry[] tab=table;
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz) {
+        transients=null;
+        return tab.values[index]|=bits;
+      }
+      if (key==null)
+        return -1L;
+    }
+  }
 
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e.bits|=bits;
+  /** return the annotation of a class stored by putTransient().
+   */
+  private long getTransient(Class clazz) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      return -1L;
+    Long bits=(Long)transients.get(clazz);
+    return (bits==null)?-1L:bits.longValue();
+  }
 
-    return -1;
+  /** store the annotation of a class that may be unloaded before
+      the multi-method, computed from the ones of its supertypes.
+      The annotations stored this way are forgotten each time
+      put() or or() changes the annotations.
+   */
+  public void putTransient(Class clazz,long bits) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      this.transients=transients=new WeakClassMap();
+    transients.put(clazz,Long.valueOf(bits));
   }
 
   /** remove entry with value 0.
    */
   public void compact() {
-    Entry[] tab=table;
-
-    for (int i=tab.length;--i>=0;) {
-      for (Entry e=tab[i],prev=null; e!=null;) {
-        if (e.bits==0) {
-          if (prev!=null)
-            e=prev.next=e.next;
-          else
-            e=tab[i]=e.next;
-
-          count--;
-        }
-        else {
-          prev=e;
-          e=e.next;
-        }
-      }
-    }
+    Table tab=table;
+    long[] values=tab.values;
+    Class[] keys=tab.keys;
+
+    int removed=0;
+    for (int i=keys.length;--i>=0;)
+      if (keys[i]!=null && values[i]==0)
+        removed++;
+
+    if (removed==0)
+      return;
+
+    count-=removed;
+
+    // publish
+    table=rehash(tab,keys.length,tab.shift,true);
+
+    // the classes have moved
+    if (frozen)
+      freeze();
+  }
+
+  /** place all classes in the first slot they are looked for,
+      if a table at most 8 times larger allows it.
+      The classes inserted after may still collide,
+      the table is placed again each time it is rehashed.
+   */
+  public void freeze() {
+    frozen=true;
+
+    Table tab=table;
+    int length=tab.keys.length;
+    PerfectHash hash=PerfectHash.find(tab.keys,length);
+    if (hash!=null)
+      table=rehash(tab,hash.getSize(),hash.getShift(),false);
   }
 
   /** DEBUG.
    */
   public void debug() {
-    Entry[] tab=table;
+    Table tab=table;
+    Class[] keys=tab.keys;
 
-    for (int i=tab.length;--i>=0;) {
-      for (Entry e=tab[i]; e!=null; e=e.next) {
-        System.out.println(e+" "+e.clazz+" "+new Bit64Mask(e.bits));
-      }
+    System.err.println("table length "+keys.length);
+
+    for (int i=keys.length;--i>=0;) {
+      if (keys[i]!=null)
+        System.err.println("index "+i+" "+keys[i]+" "+new Bit64Mask(tab.values[i]));
     }
   }
 
   /**
-   * HashMap collision list entry.
+   * The arrays of the hash table, both indexed alike.
+   * The values are only or-ed once published,
+   * a reader sees the old or the new value,
+   * a long is written atomically by 64 bits virtual machines.
    */
-  static final class Entry {
-    final Class clazz;
-    long bits;
-    Entry next;
-
-    public Entry(Class clazz, long bits, Entry next) {
-      this.clazz=clazz;
-      this.bits=bits;
-      this.next=next;
+  static final class Table {
+    Table(Class[] keys,long[] values,int shift) {
+      this.keys=keys;
+      this.values=values;
+      this.shift=shift;
     }
+
+    final Class[] keys;
+    final long[] values;
+    final int shift;
   }
 
   /**
-   * The hash table data.
+   * The hash table data, replaced and never resized.
    */
-  Entry[] table;
+  volatile Table table;
+
+  /**
+   * The annotations of the classes that may be unloaded,
+   * null if there is none since the last change.
+   */
+  private volatile WeakClassMap transients;
 
   /**
    * The total number of mappings in the hash table.
    */
   int count;
+
+  /**
+   * True if the classes are placed by a perfect hash.
+   */
+  boolean frozen;
 }
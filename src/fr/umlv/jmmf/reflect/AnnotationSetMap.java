@@ -23,7 +23,10 @@
 
 package fr.umlv.jmmf.reflect;
 
-/** this class contains annotations.
+/** this class contains annotations,
+    stored and published like in {@link Annotation32Map}.
+    A bit set of the table is never modified, set()
+    publishes new arrays with a modified copy.
     @author Remi Forax
     @version 0.9
  */
@@ -32,7 +35,7 @@ final class AnnotationSetMap {
   /** for performance only.
    */
   public AnnotationSetMap() {
-    this.table=new Entry[4];
+    this.table=new Table(new Class[4],new BitSetMask[4],0);
   }
 
   /**
@@ -40,189 +43,250 @@ final class AnnotationSetMap {
   public AnnotationSetMap(Annotation64Map map) {
 
     count=map.count;
+    frozen=map.frozen;
+
+    // copy table, the classes keep their slots
+    Annotation64Map.Table tab=map.table;
+    long[] values64=tab.values;
+    int length=values64.length;
+    BitSetMask[] values=new BitSetMask[length];
+    for(int i=length;--i>=0;)
+      if (tab.keys[i]!=null)
+        values[i]=new BitSetMask(values64[i]);
+
+    this.table=new Table(tab.keys.clone(),values,tab.shift);
+  }
 
-    // copy table
-    Annotation64Map.Entry[] tab=map.table;
-    int size=tab.length;
-    Entry[] table=new Entry[size];
-
-    for(int i=size;--i>=0;) {
-      Annotation64Map.Entry entry64=tab[i];
-
-      if (entry64==null)
-        continue;
-
-      Entry lastEntry=table[i]=
-        new Entry(entry64.clazz,new BitSetMask(entry64.bits),null);
-
-      for(entry64=entry64.next;entry64!=null;entry64=entry64.next) {
-        Entry e=new Entry(entry64.clazz,new BitSetMask(entry64.bits),null);
-        lastEntry.next=e;
-        lastEntry=e;
+  /** copy the entries of a table in new arrays of length
+      slots, skipping the ones with no bit set if compact is true.
+   */
+  private static Table rehash(Table tab,int length,int shift,
+    boolean compact) {
+    Class[] oldKeys=tab.keys;
+    BitSetMask[] oldValues=tab.values;
+
+    Class[] keys=new Class[length];
+    BitSetMask[] values=new BitSetMask[length];
+    for (int i=oldKeys.length;--i>=0;) {
+      Class clazz=oldKeys[i];
+      if (clazz!=null && !(compact && isEmpty(oldValues[i]))) {
+        int index=freeSlot(keys,shift,clazz);
+        keys[index]=clazz;
+        values[index]=oldValues[i];
       }
     }
-    this.table=table;
+    return new Table(keys,values,shift);
   }
 
-  /**
+  /** return the first free slot for the class.
    */
-  private void rehash() {
-    Entry oldMap[] = table;
-    int oldCapacity = oldMap.length;
-
-    int newCapacity = oldCapacity<<1;
-    Entry newMap[] = new Entry[newCapacity];
-    int mask = newCapacity -1;
-    
-
-    for (int i = oldCapacity ; i-- > 0 ;) {
-      for (Entry old = oldMap[i] ; old != null ; ) {
-        Entry e = old;
-        old = old.next;
-
-        int index = e.clazz.hashCode() & mask;
-        e.next = newMap[index];
-        newMap[index] = e;
-      }
-    }
-    
-    this.table = newMap;
+  private static int freeSlot(Class[] keys,int shift,Class clazz) {
+    int mask=keys.length-1;
+    int index=(clazz.hashCode()>>>shift) & mask;
+    while(keys[index]!=null)
+      index=(index+1) & mask;
+    return index;
   }
 
   /** the class mustn't be already inserted.
+      bits mustn't be modified after.
    */
   public void put(Class clazz,BitSetMask bits)
   {
-    if (count > (table.length>>1)) {
+    Table tab=table;
+    int length=tab.keys.length;
+    boolean rehash=count > (length>>1);
+    if (rehash) {
       // Rehash the table if the threshold is exceeded
-      rehash();
+      tab=rehash(tab,length<<1,0,false);
     }
+    else
+      tab=new Table(tab.keys.clone(),tab.values.clone(),
+        tab.shift);
 
-    Entry[] tab=table;
-    int index=clazz.hashCode() & (tab.length-1);
-
-    // Creates the new entry.
-    tab[index]=new Entry(clazz, bits, tab[index]);
+    int index=freeSlot(tab.keys,tab.shift,clazz);
+    tab.keys[index]=clazz;
+    tab.values[index]=bits;
     count++;
+
+    // publish
+    table=tab;
+    transients=null;
+
+    // the classes have moved
+    if (rehash && frozen)
+      freeze();
   }
 
   /** .
    */
   public BitSetMask get(Class clazz) {
-    Entry[] tab=table;
-
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e.bits;
-
-    return null;
-  }
-
-  /*
-  public int get(Class clazz) {
-    Entry[] tab=table;
-
-    int index=clazz.hashCode() & mask;
-    Entry e=tab[index];
-    for(;;) {
-      try {
-        if (e.clazz==clazz)
-          return e.bits;
-        e=e.next;
-      } catch(NullPointerException ex) {
-        ex.printStackTrace();
-        return -1;
-      }
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.values[index];
+      if (key==null)
+        return getTransient(clazz);
     }
-  }*/
+  }
 
-  /** @return null if clazz has no annotation.
+  /** same as get() but ignores the classes stored by putTransient(),
+      the annotation of a class in the hierarchy must not depend on them.
    */
-  /*public BitSetMask or(Class clazz,BitSetMask bits) {
-    Entry[] tab=table;
-
-    for(Entry e=tab[clazz.hashCode() & mask];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e.bits.or(bits);
-
-    return null;
-  }*/
+  public BitSetMask getAnchored(Class clazz) {
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.values[index];
+      if (key==null)
+        return null;
+    }
+  }
 
   /** @return null if clazz has no annotation.
    */
   public BitSetMask set(Class clazz,int bitIndex) {
-    Entry[] tab=table;
-
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz) {
-        BitSetMask mask=e.bits;
-        mask.set(bitIndex);
-        return mask;
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz) {
+        BitSetMask bits=new BitSetMask(tab.values[index]);
+        bits.set(bitIndex);
+
+        // publish
+        BitSetMask[] values=tab.values.clone();
+        values[index]=bits;
+        table=new Table(keys,values,tab.shift);
+        transients=null;
+        return bits;
       }
+      if (key==null)
+        return null;
+    }
+  }
 
-    return null;
+  /** return the annotation of a class stored by putTransient().
+   */
+  private BitSetMask getTransient(Class clazz) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      return null;
+    return (BitSetMask)transients.get(clazz);
+  }
+
+  /** store the annotation of a class that may be unloaded before
+      the multi-method, computed from the ones of its supertypes.
+      The annotations stored this way are forgotten each time
+      put() or set() changes the annotations.
+   */
+  public void putTransient(Class clazz,BitSetMask bits) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      this.transients=transients=new WeakClassMap();
+    transients.put(clazz,bits);
   }
 
   /** remove entry with value 0.
    */
   public void compact() {
-    Entry[] tab=table;
-
-    for (int i=tab.length;--i>=0;) {
-      for (Entry e=tab[i],prev=null; e!=null;) {
-        BitSetMask bits=e.bits;
-        if (bits==null || bits.length()==0) {
-          if (prev!=null)
-            e=prev.next=e.next;
-          else
-            e=tab[i]=e.next;
-
-          count--;
-        }
-        else {
-          prev=e;
-          e=e.next;
-        }
-      }
-    }
+    Table tab=table;
+    BitSetMask[] values=tab.values;
+    Class[] keys=tab.keys;
+
+    int removed=0;
+    for (int i=keys.length;--i>=0;)
+      if (keys[i]!=null && isEmpty(values[i]))
+        removed++;
+
+    if (removed==0)
+      return;
+
+    count-=removed;
+
+    // publish
+    table=rehash(tab,keys.length,tab.shift,true);
+
+    // the classes have moved
+    if (frozen)
+      freeze();
+  }
+
+  private static boolean isEmpty(BitSetMask bits) {
+    return bits==null || bits.length()==0;
+  }
+
+  /** place all classes in the first slot they are looked for,
+      if a table at most 8 times larger allows it.
+      The classes inserted after may still collide,
+      the table is placed again each time it is rehashed.
+   */
+  public void freeze() {
+    frozen=true;
+
+    Table tab=table;
+    int length=tab.keys.length;
+    PerfectHash hash=PerfectHash.find(tab.keys,length);
+    if (hash!=null)
+      table=rehash(tab,hash.getSize(),hash.getShift(),false);
   }
 
   /** DEBUG.
    */
   public void debug() {
-    Entry[] tab=table;
+    Table tab=table;
+    Class[] keys=tab.keys;
 
-    for (int i=tab.length;--i>=0;) {
-      for (Entry e=tab[i]; e!=null; e=e.next) {
-        System.out.println(e+" "+e.clazz+" "+e.bits);
-      }
+    for (int i=keys.length;--i>=0;) {
+      if (keys[i]!=null)
+        System.out.println("index "+i+" "+keys[i]+" "+tab.values[i]);
     }
   }
 
   /**
-   * HashMap collision list entry.
+   * The arrays of the hash table, both indexed alike,
+   * never modified once published.
    */
-  static final class Entry {
-    final Class clazz;
-    BitSetMask bits;
-    Entry next;
-
-    Entry(Class clazz, BitSetMask bits, Entry next) {
-      this.clazz=clazz;
-      this.bits=bits;
-      this.next=next;
+  static final class Table {
+    Table(Class[] keys,BitSetMask[] values,int shift) {
+      this.keys=keys;
+      this.values=values;
+      this.shift=shift;
     }
+
+    final Class[] keys;
+    final BitSetMask[] values;
+    final int shift;
   }
 
   /**
-   * The hash table data.
+   * The hash table data, replaced and never modified.
    */
-  Entry[] table;
+  volatile Table table;
+
+  /**
+   * The annotations of the classes that may be unloaded,
+   * null if there is none since the last change.
+   */
+  private volatile WeakClassMap transients;
 
   /**
    * The total number of mappings in the hash table.
    */
   int count;
+
+  /**
+   * True if the classes are placed by a perfect hash.
+   */
+  boolean frozen;
 }
@@ -170,6 +170,24 @@ final class Bit32Impl extends AbstractImpl {
     //}
   }
 
+  /** annotate a class for all parameters.
+   */
+  public void warmUp(Class clazz) {
+    Annotation32Map[] annotations=this.annotations;
+    for(int i=annotations.length;--i>=0;)
+      if (annotations[i].get(clazz)==-1)
+        lazyAnnotation(annotations[i],clazz);
+  }
+
+  /** freeze all annotation maps.
+   */
+  public void freeze() {
+    Annotation32Map[] annotations=this.annotations;
+    for(int i=annotations.length;--i>=0;)
+      annotations[i].freeze();
+    frozen=true;
+  }
+
   private void processNullAnnotation(Annotation32Map annotation,
     Class clazz,int index) {
 
@@ -215,7 +233,7 @@ final class Bit32Impl extends AbstractImpl {
       //DEBUG
       //System.out.println("superTypes("+clazz.getName()+")="+type.getName());
 
-      int ann=annotation.get(type);
+      int ann=annotation.getAnchored(type);
       if (ann==-1)
         ann=createAnnotation(annotation,type,child,0,lazy);
       else
@@ -269,7 +287,7 @@ final class Bit32Impl extends AbstractImpl {
       //DEBUG
       //System.out.println("superTypes("+clazz.getName()+")="+type.getName());
 
-      int ann=annotation.get(type);
+      int ann=annotation.getAnchored(type);
       if (ann==-1)
         ann=createAnnotation2(annotation,type,child);
       else
@@ -349,7 +367,7 @@ final class Bit32Impl extends AbstractImpl {
         // get annotation
         ann=annotation.get(clazz);
         if (ann==-1)
-          ann=createAnnotation(annotation,clazz,null,0,true);
+          ann=lazyAnnotation(annotation,clazz);
       }
 
       bits&=ann;
@@ -395,7 +413,7 @@ final class Bit32Impl extends AbstractImpl {
         ann=annotation.get(clazz);
         if (ann==-1)
           //ann=createAnnotation(annotation,clazz,null,0,true);
-          ann=createAnnotation2(annotation,clazz,null);
+          ann=lazyAnnotation(annotation,clazz);
       }
 
       bits&=ann;
@@ -413,6 +431,93 @@ final class Bit32Impl extends AbstractImpl {
   }
 
 
+  public int getMethodIndex1(Object arg,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException
+  {
+    int bits=mask.intValue() & annotation(annotations[0],arg);
+
+    if (bits==0)
+      throw createNoSuchMethodException();
+
+    // if there is one bit set
+    if ((bits & (bits-1))==0)
+      return fbs(bits);
+
+    // disambiguation process
+    return disambiguate(bits);
+  }
+
+  public int getMethodIndex2(Object arg0,Object arg1,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException
+  {
+    Annotation32Map[] annotations=this.annotations;
+    int bits=mask.intValue() & annotation(annotations[1],arg1) &
+      annotation(annotations[0],arg0);
+
+    if (bits==0)
+      throw createNoSuchMethodException();
+
+    // if there is one bit set
+    if ((bits & (bits-1))==0)
+      return fbs(bits);
+
+    // disambiguation process
+    return disambiguate(bits);
+  }
+
+  /** return the annotation of the class of an argument.
+   */
+  private int annotation(Annotation32Map annotation,Object arg) {
+    // get special annotation if null
+    if (arg==null)
+      return annotation.get(NULL_CLASS);
+
+    // get annotation
+    Class clazz=arg.getClass();
+    int ann=annotation.get(clazz);
+    if (ann==-1)
+      ann=lazyAnnotation(annotation,clazz);
+    return ann;
+  }
+
+  /** return the annotation of a class not seen yet.
+      the lookup doesn't lock, the annotation is created
+      while holding the lock.
+   */
+  private int lazyAnnotation(Annotation32Map annotation,Class clazz) {
+    synchronized(getLock()) {
+      int ann=annotation.get(clazz);
+      if (ann==-1)
+        ann=(isStorable(clazz))?
+          createAnnotation2(annotation,clazz,null):
+          transientAnnotation(annotation,clazz);
+      return ann;
+    }
+  }
+
+  /** return the annotation of a class that may be unloaded,
+      computed from the ones of its supertypes, the class isn't
+      registered in the hierarchy.
+   */
+  private int transientAnnotation(Annotation32Map annotation,Class clazz) {
+    int value=0;
+    Class[] types=TypeModel.getSuperTypes(clazz);
+    for(int i=types.length;--i>=0;) {
+      Class type=types[i];
+
+      int ann=annotation.get(type);
+      if (ann==-1)
+        ann=(isStorable(type))?
+          createAnnotation2(annotation,type,null):
+          transientAnnotation(annotation,type);
+
+      value|=ann;
+    }
+
+    annotation.putTransient(clazz,value);
+    return value;
+  }
+
   /** disambiguation
    */
   private int disambiguate(int bits)
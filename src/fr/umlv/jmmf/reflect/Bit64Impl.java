@@ -49,6 +49,9 @@ final class Bit64Impl extends AbstractImpl {
 
     this.partialOrderSize=size;
     this.partialOrders=partialOrders;
+
+    if (frozen)
+      freeze();
   }
 
   /**
@@ -171,6 +174,24 @@ final class Bit64Impl extends AbstractImpl {
     //}
   }
 
+  /** annotate a class for all parameters.
+   */
+  public void warmUp(Class clazz) {
+    Annotation64Map[] annotations=this.annotations;
+    for(int i=annotations.length;--i>=0;)
+      if (annotations[i].get(clazz)==-1L)
+        lazyAnnotation(annotations[i],clazz);
+  }
+
+  /** freeze all annotation maps.
+   */
+  public void freeze() {
+    Annotation64Map[] annotations=this.annotations;
+    for(int i=annotations.length;--i>=0;)
+      annotations[i].freeze();
+    frozen=true;
+  }
+
   private void processNullAnnotation(Annotation64Map annotation,
     Class clazz,long index) {
 
@@ -207,7 +228,7 @@ final class Bit64Impl extends AbstractImpl {
       // compute annotation
       Class type=types[i];
 
-      long ann=annotation.get(type);
+      long ann=annotation.getAnchored(type);
       if (ann==-1L)
         ann=createAnnotation(annotation,type,child,0,lazy);
       else
@@ -284,7 +305,7 @@ final class Bit64Impl extends AbstractImpl {
         // get annotation
         ann=annotation.get(clazz);
         if (ann==-1L)
-          ann=createAnnotation(annotation,clazz,null,0,true);
+          ann=lazyAnnotation(annotation,clazz);
       }
 
       bits&=ann;
@@ -331,7 +352,7 @@ final class Bit64Impl extends AbstractImpl {
         Class clazz=arg.getClass();
         ann=annotation.get(clazz);
         if (ann==-1L)
-          ann=createAnnotation(annotation,clazz,null,0,true);
+          ann=lazyAnnotation(annotation,clazz);
       }
 
       bits&=ann;
@@ -351,6 +372,96 @@ final class Bit64Impl extends AbstractImpl {
       disambiguate(bits);
   }
 
+  public int getMethodIndex1(Object arg,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException
+  {
+    long bits=mask.longValue() & annotation(annotations[0],arg);
+
+    if (bits==0)
+      throw createNoSuchMethodException();
+
+    // if there is one bit set
+    if ((bits & (bits-1L))==0)
+      return fbs(bits);
+
+    // disambiguation process, allocate only if there are null values
+    return (bits<0)?disambiguate(-bits,new Object[]{arg}):
+      disambiguate(bits);
+  }
+
+  public int getMethodIndex2(Object arg0,Object arg1,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException
+  {
+    Annotation64Map[] annotations=this.annotations;
+    long bits=mask.longValue() & annotation(annotations[1],arg1) &
+      annotation(annotations[0],arg0);
+
+    if (bits==0)
+      throw createNoSuchMethodException();
+
+    // if there is one bit set
+    if ((bits & (bits-1L))==0)
+      return fbs(bits);
+
+    // disambiguation process, allocate only if there are null values
+    return (bits<0)?disambiguate(-bits,new Object[]{arg0,arg1}):
+      disambiguate(bits);
+  }
+
+  /** return the annotation of the class of an argument.
+   */
+  private long annotation(Annotation64Map annotation,Object arg) {
+    // get special annotation if null
+    if (arg==null)
+      return annotation.get(NULL_CLASS);
+
+    // get annotation
+    Class clazz=arg.getClass();
+    long ann=annotation.get(clazz);
+    if (ann==-1L)
+      ann=lazyAnnotation(annotation,clazz);
+    return ann;
+  }
+
+  /** return the annotation of a class not seen yet.
+      the lookup doesn't lock, the annotation is created
+      while holding the lock.
+   */
+  private long lazyAnnotation(Annotation64Map annotation,Class clazz) {
+    synchronized(getLock()) {
+      long ann=annotation.get(clazz);
+      if (ann==-1L)
+        ann=(isStorable(clazz))?
+          createAnnotation(annotation,clazz,null,0,true):
+          transientAnnotation(annotation,clazz);
+      return ann;
+    }
+  }
+
+  /** return the annotation of a class that may be unloaded,
+      computed from the ones of its supertypes, the class isn't
+      registered in the hierarchy.
+   */
+  private long transientAnnotation(Annotation64Map annotation,
+    Class clazz) {
+    long value=0;
+    Class[] types=TypeModel.getSuperTypes(clazz);
+    for(int i=types.length;--i>=0;) {
+      Class type=types[i];
+
+      long ann=annotation.get(type);
+      if (ann==-1L)
+        ann=(isStorable(type))?
+          createAnnotation(annotation,type,null,0,true):
+          transientAnnotation(annotation,type);
+
+      value|=ann;
+    }
+
+    annotation.putTransient(clazz,value);
+    return value;
+  }
+
   /** disambiguation
    */
   private int disambiguate(long bits)
@@ -399,7 +510,7 @@ final class Bit64Impl extends AbstractImpl {
         Class clazz=args[i];
         ann=annotation.get(clazz);
         if (ann==-1L)
-          ann=createAnnotation(annotation,clazz,null,0,true);
+          ann=lazyAnnotation(annotation,clazz);
       } else {
         ann=annotation.get(NULL_CLASS);
       }
@@ -66,6 +66,9 @@ final class BitSetImpl extends AbstractImpl {
 
     this.partialOrders=partialOrders;
     this.partialOrderSize=size;
+
+    if (frozen)
+      freeze();
   }
 
   /**
@@ -97,9 +100,11 @@ final class BitSetImpl extends AbstractImpl {
       // and set the bit corresponding to index
       BitSetMask ann=annotation.set(type,index);
       if (ann==null) {
-        ann=createAnnotation(annotation,type,null,
+        createAnnotation(annotation,type,null,
           new BitSetMask(),false);
-        ann.set(index);
+
+        // published annotations are copied before modification
+        ann=annotation.set(type,index);
       }
 
       // DEBUG
@@ -130,18 +135,14 @@ final class BitSetImpl extends AbstractImpl {
 
     int size=methodMap.size();
 
-    // ensure capacity of the partial order array
+    // work on a copy, the published partial orders
+    // may be read without lock
     int length=partialOrders.length;
-    if (size>length) {
-      BitSetMask[] newPartialOrders=new BitSetMask[size];
-      if (length!=0)
-        System.arraycopy(partialOrders,0,newPartialOrders,0,length);
-
-      for(int i=size;--i>=length;)
-        newPartialOrders[i]=new BitSetMask();
-
-      this.partialOrders=partialOrders=newPartialOrders;
-    }
+    BitSetMask[] newPartialOrders=new BitSetMask[Math.max(size,length)];
+    for(int i=newPartialOrders.length;--i>=0;)
+      newPartialOrders[i]=(i<length)?
+        new BitSetMask(partialOrders[i]):new BitSetMask();
+    partialOrders=newPartialOrders;
 
     // process partial orders
     for(int i=size;--i>=0;) {
@@ -157,8 +158,9 @@ final class BitSetImpl extends AbstractImpl {
       }
     }
 
-    // process size
+    // process size and publish
     partialOrderSize=size;
+    this.partialOrders=partialOrders;
   }
 
   /** compute applicable method if all classes are already
@@ -208,6 +210,24 @@ final class BitSetImpl extends AbstractImpl {
     //}
   }
 
+  /** annotate a class for all parameters.
+   */
+  public void warmUp(Class clazz) {
+    AnnotationSetMap[] annotations=this.annotations;
+    for(int i=annotations.length;--i>=0;)
+      if (annotations[i].get(clazz)==null)
+        lazyAnnotation(annotations[i],clazz);
+  }
+
+  /** freeze all annotation maps.
+   */
+  public void freeze() {
+    AnnotationSetMap[] annotations=this.annotations;
+    for(int i=annotations.length;--i>=0;)
+      annotations[i].freeze();
+    frozen=true;
+  }
+
   private void createNullAnnotation(AnnotationSetMap annotation,
     Class clazz,int index) {
 
@@ -247,7 +267,7 @@ final class BitSetImpl extends AbstractImpl {
       // compute annotation
       Class type=types[i];
 
-      BitSetMask ann=annotation.get(type);
+      BitSetMask ann=annotation.getAnchored(type);
       if (ann==null)
         ann=createAnnotation(annotation,type,child,
           new BitSetMask(),lazy);
@@ -319,8 +339,7 @@ final class BitSetImpl extends AbstractImpl {
         // get annotation
         ann=annotation.get(clazz);
         if (ann==null)
-          ann=createAnnotation(annotation,clazz,null,
-            new BitSetMask(),true);
+          ann=lazyAnnotation(annotation,clazz);
       }
 
       bits.and(ann);
@@ -363,8 +382,7 @@ final class BitSetImpl extends AbstractImpl {
         Class clazz=arg.getClass();
         ann=annotation.get(clazz);
         if (ann==null)
-          ann=createAnnotation(annotation,clazz,null,
-            new BitSetMask(),true);
+          ann=lazyAnnotation(annotation,clazz);
       }
 
       bits.and(ann);
@@ -384,6 +402,93 @@ final class BitSetImpl extends AbstractImpl {
     return disambiguate(bits);
   }
 
+  public int getMethodIndex1(Object arg,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException
+  {
+    BitSetMask bits=mask.bitSetValue();
+    bits.and(annotation(annotations[0],arg));
+    return getMethodIndex(bits);
+  }
+
+  public int getMethodIndex2(Object arg0,Object arg1,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException
+  {
+    AnnotationSetMap[] annotations=this.annotations;
+    BitSetMask bits=mask.bitSetValue();
+    bits.and(annotation(annotations[1],arg1));
+    bits.and(annotation(annotations[0],arg0));
+    return getMethodIndex(bits);
+  }
+
+  private int getMethodIndex(BitSetMask bits)
+    throws NoSuchMethodException, MultipleMethodsException {
+    int length=bits.length();
+    if (length==0)
+      throw createNoSuchMethodException();
+
+    // if there is one bit set
+    if (bits.onlyOneBitSet())
+      return length-1;
+
+    // disambiguation process
+    return disambiguate(bits);
+  }
+
+  /** return the annotation of the class of an argument.
+   */
+  private BitSetMask annotation(AnnotationSetMap annotation,Object arg) {
+    // get special annotation if null
+    if (arg==null)
+      return annotation.get(NULL_CLASS);
+
+    // get annotation
+    Class clazz=arg.getClass();
+    BitSetMask ann=annotation.get(clazz);
+    if (ann==null)
+      ann=lazyAnnotation(annotation,clazz);
+    return ann;
+  }
+
+  /** return the annotation of a class not seen yet.
+      the lookup doesn't lock, the annotation is created
+      while holding the lock.
+   */
+  private BitSetMask lazyAnnotation(AnnotationSetMap annotation,
+    Class clazz) {
+    synchronized(getLock()) {
+      BitSetMask ann=annotation.get(clazz);
+      if (ann==null)
+        ann=(isStorable(clazz))?
+          createAnnotation(annotation,clazz,null,new BitSetMask(),true):
+          transientAnnotation(annotation,clazz);
+      return ann;
+    }
+  }
+
+  /** return the annotation of a class that may be unloaded,
+      computed from the ones of its supertypes, the class isn't
+      registered in the hierarchy.
+   */
+  private BitSetMask transientAnnotation(AnnotationSetMap annotation,
+    Class clazz) {
+    BitSetMask value=new BitSetMask();
+    Class[] types=TypeModel.getSuperTypes(clazz);
+    for(int i=types.length;--i>=0;) {
+      Class type=types[i];
+
+      BitSetMask ann=annotation.get(type);
+      if (ann==null)
+        ann=(isStorable(type))?
+          createAnnotation(annotation,type,null,new BitSetMask(),true):
+          transientAnnotation(annotation,type);
+
+      value.or(ann);
+    }
+
+    annotation.putTransient(clazz,value);
+    return value;
+  }
+
   /** disambiguation
    */
   private int disambiguate(BitSetMask bits)
@@ -403,19 +508,21 @@ final class BitSetImpl extends AbstractImpl {
 
   private final BitSetMask applyPartialOrders(BitSetMask bits) {
 
-    /* NON OPTIMIZED VERSION */
     BitSetMask[] partialOrders=this.partialOrders;
 
+    // only visit the bits set, the intersection is empty
+    // as soon as two methods are not comparable
     BitSetMask value=new BitSetMask(bits);
-    for(int i=value.length();--i>=0;) {
-      if (value.get(i))
-        bits.and(partialOrders[i]);
+    for(int i=value.nextSetBit(0);i>=0;i=value.nextSetBit(i+1)) {
+      bits.and(partialOrders[i]);
+      if (bits.wordsInUse==0)
+        break;
     }
 
     return bits;
   }
 
   int partialOrderSize;
-  BitSetMask[] partialOrders;
+  volatile BitSetMask[] partialOrders;
   final AnnotationSetMap[] annotations;
 }
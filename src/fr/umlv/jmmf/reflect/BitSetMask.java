@@ -23,112 +23,123 @@
 
 package fr.umlv.jmmf.reflect;
 
-/**
+import java.util.Arrays;
+
+/** a bit set of any size, stored in 64 bits words.
+
+     The searches use the leading and trailing zero counts
+     of the words, which the VM compiles to one instruction,
+     and and()/or() are simple counted loops over the words
+     that the VM may vectorize.
 
      @author Remi Forax
      @version 0.9
  */
 class BitSetMask extends BitMask {
 
-  private BitSetMask(int[] unit,int unitsInUse) {
-    this.unit=unit;
-    this.unitsInUse=unitsInUse;
+  private BitSetMask(long[] words,int wordsInUse) {
+    this.words=words;
+    this.wordsInUse=wordsInUse;
   }
 
   public BitSetMask() {
-    unit=new int[2];
+    words=new long[1];
   }
 
   public BitSetMask(int value) {
-    unit=new int[] {value,0};
-    unitsInUse=(value==0)?0:1;
+    words=new long[] {value & 0xFFFFFFFFL};
+    wordsInUse=(value==0)?0:1;
   }
 
   public BitSetMask(long value) {
-
-    int lowValue=(int)(value & 0x7FFFFFFFL)|
-      (((value & 0x80000000L)!=0)?0x80000000:0);
-
-    long hightLong=value>>>BITS_PER_UNIT;
-    int hightValue=(int)(hightLong & 0x7FFFFFFFL)|
-      (((hightLong & 0x80000000L)!=0)?0x80000000:0);
-
-    unit=new int[]{ lowValue, hightValue};
-    unitsInUse=(hightValue==0)?((lowValue==0)?0:1):2;
+    words=new long[] {value};
+    wordsInUse=(value==0)?0:1;
   }
 
   public BitSetMask(BitSetMask mask) {
-    int unitsInUse=this.unitsInUse=mask.unitsInUse;
-    int[] unit=new int[unitsInUse];
-    System.arraycopy(mask.unit,0,unit,0,unitsInUse);
-    this.unit=unit;
+    int wordsInUse=this.wordsInUse=mask.wordsInUse;
+    this.words=Arrays.copyOf(mask.words,Math.max(wordsInUse,1));
   }
 
   public int type() {
     return BITSET_MASK;
   }
 
-  /** Ensures that the BitSet can hold enough units.
-      @param unitsRequired the minimum acceptable number of units.
+  /** Ensures that the BitSet can hold enough words.
+      @param wordsRequired the minimum acceptable number of words.
    */
-  private void ensureCapacity(int unitsRequired) {
-    int unitLength=unit.length;
-    if (unitLength < unitsRequired) {
-      int request = Math.max(unitLength+1, unitsRequired);
-      int newUnit[] = new int[request];
-      System.arraycopy(unit, 0, newUnit, 0, unitsInUse);
-      unit = newUnit;
+  private void ensureCapacity(int wordsRequired) {
+    int wordLength=words.length;
+    if (wordLength < wordsRequired) {
+      int request = Math.max(wordLength+1, wordsRequired);
+      words = Arrays.copyOf(words, request);
     }
   }
 
-  /** Set the field unitsInUse with the logical size in units of the bit
-      set.  WARNING:This function assumes that the number of units actually
-      in use is less than or equal to the current value of unitsInUse!
+  /** Set the field wordsInUse with the logical size in words of the bit
+      set.  WARNING:This function assumes that the number of words actually
+      in use is less than or equal to the current value of wordsInUse!
    */
-  private void recalculateUnitsInUse() {
-    /* Traverse the bitset until a used unit is found */
+  private void recalculateWordsInUse() {
+    /* Traverse the bitset until a used word is found */
     int i;
-    for (i=unitsInUse-1;i>=0;i--)
-      if (unit[i]!=0)
-        break; //this unit is in use!
+    for (i=wordsInUse-1;i>=0;i--)
+      if (words[i]!=0)
+        break; //this word is in use!
 
-    unitsInUse=i+1; //the new logical size
+    wordsInUse=i+1; //the new logical size
   }
 
 
   public int length() {
-    int unitsInUse=this.unitsInUse;
-    if (unitsInUse == 0)
+    int wordsInUse=this.wordsInUse;
+    if (wordsInUse == 0)
       return 0;
 
-    int highestBit=(unitsInUse - 1)*BITS_PER_UNIT;
-    int highestUnit = unit[unitsInUse - 1];
-    do {
-      highestUnit=highestUnit>>>1;
-      highestBit++;
-    } while(highestUnit>0);
-
-    return highestBit;
+    return wordsInUse*BITS_PER_WORD-
+      Long.numberOfLeadingZeros(words[wordsInUse-1]);
   }
 
   /** true if only one bit is set.
    */
   public boolean onlyOneBitSet() {
-    int highestUnitInUse=this.unitsInUse-1;
-    int highestUnit=unit[highestUnitInUse];
-    if ((highestUnit & (highestUnit-1))!=0)
+    int highestWordInUse=this.wordsInUse-1;
+    if (highestWordInUse<0)
       return false;
 
-    for (int i=highestUnitInUse;--i>=0;)
-      if (unit[i]!=0)
+    long highestWord=words[highestWordInUse];
+    if ((highestWord & (highestWord-1))!=0)
+      return false;
+
+    for (int i=highestWordInUse;--i>=0;)
+      if (words[i]!=0)
         return false;
     return true;
   }
 
+  /** return the index of the first bit set from index fromIndex
+      or -1 if there is none.
+   */
+  public int nextSetBit(int fromIndex) {
+    int wordIndex=wordIndex(fromIndex);
+    int wordsInUse=this.wordsInUse;
+    if (wordIndex>=wordsInUse)
+      return -1;
+
+    long[] words=this.words;
+    long word=words[wordIndex] & (-1L << fromIndex);
+    while(word==0) {
+      if (++wordIndex==wordsInUse)
+        return -1;
+      word=words[wordIndex];
+    }
+    return wordIndex*BITS_PER_WORD+Long.numberOfTrailingZeros(word);
+  }
+
   public boolean get(int index) {
-    int unitIndex = unitIndex(index);
-    if (unitIndex < unitsInUse)
-      return ((unit[unitIndex] & bit(index)) != 0);
+    int wordIndex = wordIndex(index);
+    if (wordIndex < wordsInUse)
+      return ((words[wordIndex] & bit(index)) != 0);
     else
       return false;
   }
@@ -136,124 +147,119 @@ class BitSetMask extends BitMask {
   /** this implementation always return this.
    */
   public BitMask set(int index) {
-    int unitIndex=unitIndex(index);
-    int unitsRequired=unitIndex+1;
+    int wordIndex=wordIndex(index);
+    int wordsRequired=wordIndex+1;
 
-    if (unitsInUse < unitsRequired) {
-      ensureCapacity(unitsRequired);
-      unitsInUse = unitsRequired;
+    if (wordsInUse < wordsRequired) {
+      ensureCapacity(wordsRequired);
+      wordsInUse = wordsRequired;
     }
 
-    unit[unitIndex]|=bit(index);
+    words[wordIndex]|=bit(index);
     return this;
   }
 
   /** this implementation always return this.
    */
   public BitSetMask clear(int index) {
-    int unitIndex=unitIndex(index);
-    if (unitIndex>=unitsInUse)
+    int wordIndex=wordIndex(index);
+    if (wordIndex>=wordsInUse)
         return this;
 
-    unit[unitIndex]&=~bit(index);
-    if (unit[unitsInUse-1]==0)
-      recalculateUnitsInUse();
+    words[wordIndex]&=~bit(index);
+    if (words[wordsInUse-1]==0)
+      recalculateWordsInUse();
 
     return this;
   }
 
   public void and(BitSetMask set) {
+    // use local copy
+    long[] words=this.words;
+    long[] setWords=set.words;
+
     // perform logical AND on bits in common
-    int unitsInUse=this.unitsInUse;
-    int unitsInCommon=Math.min(unitsInUse, set.unitsInUse);
+    int wordsInUse=this.wordsInUse;
+    int wordsInCommon=Math.min(wordsInUse, set.wordsInUse);
 
-    int i;
-    for(i=0;i<unitsInCommon;i++)
-      unit[i]&=set.unit[i];
+    for(int i=0;i<wordsInCommon;i++)
+      words[i]&=setWords[i];
 
-    // clear out units no longer used
-    for(;i<unitsInUse;i++)
-      unit[i]=0;
+    // clear out words no longer used
+    Arrays.fill(words,wordsInCommon,wordsInUse,0L);
 
-    // Recalculate units in use if necessary
-    this.unitsInUse=unitsInCommon;
-    if (unitsInCommon>0 && unit[unitsInCommon-1]==0)
-      recalculateUnitsInUse();
+    // Recalculate words in use if necessary
+    this.wordsInUse=wordsInCommon;
+    if (wordsInCommon>0 && words[wordsInCommon-1]==0)
+      recalculateWordsInUse();
   }
 
   public BitMask or(BitMask mask) {
 
     switch(mask.type()) {
       case BIT32_MASK:
-        int value=mask.intValue();
-        unit[0]|=value;
-        if (unitsInUse==0 && value!=0)
-          unitsInUse=1;
-        return this;
+        return or(mask.intValue() & 0xFFFFFFFFL);
       case BIT64_MASK:
-        long l=mask.longValue();
-        unit[0]=(int)(l & 0x7FFFFFFFL)|
-          (((l & 0x80000000L)!=0)?0x80000000:0);
-        long hightLong=l>>>BITS_PER_UNIT;
-        unit[1]=(int)(hightLong & 0x7FFFFFFFL)|
-          (((hightLong & 0x80000000L)!=0)?0x80000000:0);
-
-        if (unitsInUse<2)
-          unitsInUse=(unit[1]==0)?((unit[0]==0)?0:1):2;
-        return this;
+        return or(mask.longValue());
       default:
         return or(mask.bitSetValue());
     }
   }
 
+  /** or the first word.
+   */
+  private BitSetMask or(long value) {
+    words[0]|=value;
+    if (wordsInUse==0 && value!=0)
+      wordsInUse=1;
+    return this;
+  }
+
   /** NOTE: this implementation always return this.
    */
   public BitSetMask or(BitSetMask set) {
 
     // ensure capacity
-    int setUnitsInUse=set.unitsInUse;
-    ensureCapacity(setUnitsInUse);
+    int setWordsInUse=set.wordsInUse;
+    ensureCapacity(setWordsInUse);
 
     // use local copy
-    int[] unit=this.unit;
-    int[] setUnits=set.unit;
+    long[] words=this.words;
+    long[] setWords=set.words;
 
     // perform logical OR on bits in common
-    int unitsInUse=this.unitsInUse;
-    int unitsInCommon=Math.min(unitsInUse,setUnitsInUse);
+    int wordsInUse=this.wordsInUse;
+    int wordsInCommon=Math.min(wordsInUse,setWordsInUse);
 
-    int i;
-    for(i=0; i<unitsInCommon; i++)
-      unit[i]|=setUnits[i];
+    for(int i=0; i<wordsInCommon; i++)
+      words[i]|=setWords[i];
 
     // copy any remaining bits
-    for(; i<setUnitsInUse; i++)
-      unit[i]=setUnits[i];
+    if (wordsInCommon<setWordsInUse)
+      System.arraycopy(setWords,wordsInCommon,words,wordsInCommon,
+        setWordsInUse-wordsInCommon);
 
-    if (unitsInUse<setUnitsInUse)
-      this.unitsInUse=setUnitsInUse;
+    if (wordsInUse<setWordsInUse)
+      this.wordsInUse=setWordsInUse;
 
     return this;
   }
 
   public String toString() {
-    int numBits = unitsInUse << ADDRESS_BITS_PER_UNIT;
-    StringBuffer buffer = new StringBuffer(8*numBits + 2);
+    StringBuffer buffer = new StringBuffer(8*wordsInUse + 2);
 
     // DEBUG
     //buffer.append('(');
-    //buffer.append(unitsInUse);
+    //buffer.append(wordsInUse);
     //buffer.append(')');
 
     String separator = "";
     buffer.append('{');
 
-    for(int i=0; i<numBits; i++) {
-      if (get(i)) {
-        buffer.append(separator);
-        separator = ", ";
-        buffer.append(i);
-      }
+    for(int i=nextSetBit(0); i>=0; i=nextSetBit(i+1)) {
+      buffer.append(separator);
+      separator = ", ";
+      buffer.append(i);
     }
 
     buffer.append('}');
@@ -273,30 +279,31 @@ class BitSetMask extends BitMask {
     return new BitSetMask(this);
   }
 
-  int unit[];
-  int unitsInUse;
+  long words[];
+  int wordsInUse;
 
   /** return a BitSetMask with the size first bit set.
    */
   public static BitSetMask fill(int size) {
-    int index=unitIndex(size);
-    int[] unit=new int[index+1];
-    for(int i=index;--i>=0;)
-      unit[i]=-1;
+    if (size==0)
+      return new BitSetMask();
+
+    int index=wordIndex(size-1);
+    long[] words=new long[index+1];
+    Arrays.fill(words,0,index,-1L);
 
-    unit[index]=bit(size+1)-1;
-    return new BitSetMask(unit,index+1);
+    words[index]=-1L >>> -size;
+    return new BitSetMask(words,index+1);
   }
 
-  private static int unitIndex(int bitIndex) {
-    return bitIndex >> ADDRESS_BITS_PER_UNIT;
+  private static int wordIndex(int bitIndex) {
+    return bitIndex >> ADDRESS_BITS_PER_WORD;
   }
 
-  private static int bit(int bitIndex) {
-    return 1 << (bitIndex & BIT_INDEX_MASK);
+  private static long bit(int bitIndex) {
+    return 1L << bitIndex;
   }
 
-  private final static int ADDRESS_BITS_PER_UNIT = 5;
-  private final static int BITS_PER_UNIT = 1 << ADDRESS_BITS_PER_UNIT;
-  private final static int BIT_INDEX_MASK = BITS_PER_UNIT - 1;
+  private final static int ADDRESS_BITS_PER_WORD = 6;
+  private final static int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
 }
@@ -25,6 +25,11 @@ package fr.umlv.jmmf.reflect;
 
 
 /** this class represents subtyping relations between classes.
+    Only used to create or update annotations, so always
+    while holding the lock of the implementation, a search
+    of the most specific method never reads it.
+    An open addressing table of entries, only one array
+    because the entries are needed anyway to link the subtypes.
 
     @author Remi Forax
     @version 0.9
@@ -39,25 +44,28 @@ final class DAGHierarchy {
   /**
    */
   private void rehash() {
-    int oldCapacity = table.length;
-    Entry oldMap[] = table;
+    Entry[] oldMap=table;
 
-    int newCapacity = oldCapacity<<1;
-    Entry newMap[] = new Entry[newCapacity];
-    int mask=newCapacity-1;
+    int newCapacity=oldMap.length<<1;
+    Entry[] newMap=new Entry[newCapacity];
 
-    for (int i=oldCapacity; i-->0;) {
-      for (Entry old=oldMap[i];old!=null;) {
-        Entry e=old;
-        old=old.next;
-
-        int index=e.clazz.hashCode() & mask;
-        e.next=newMap[index];
-        newMap[index]=e;
-      }
+    for (int i=oldMap.length; i-->0;) {
+      Entry e=oldMap[i];
+      if (e!=null)
+        newMap[freeSlot(newMap,e.clazz)]=e;
     }
     
-    this.table = newMap;
+    this.table=newMap;
+  }
+
+  /** return the first free slot for the class.
+   */
+  private static int freeSlot(Entry[] tab,Class clazz) {
+    int mask=tab.length-1;
+    int index=clazz.hashCode() & mask;
+    while(tab[index]!=null)
+      index=(index+1) & mask;
+    return index;
   }
 
   /** create an entry corresponding to the class.
@@ -69,11 +77,11 @@ final class DAGHierarchy {
     }
 
     Entry[] tab=table;
-    int index=clazz.hashCode() & (tab.length-1);
+    int index=freeSlot(tab,clazz);
 
     // Creates the new entry.
     count++;
-    return tab[index]=new Entry(clazz, tab[index]);
+    return tab[index]=new Entry(clazz);
   }
 
   /** return the entry corresponding to the class.
@@ -81,26 +89,23 @@ final class DAGHierarchy {
    */
   public Entry get(Class clazz) {
     Entry[] tab=table;
-
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
+    int mask=tab.length-1;
+    for(int index=clazz.hashCode() & mask;;index=(index+1) & mask) {
+      Entry e=tab[index];
+      if (e==null || e.clazz==clazz)
         return e;
-
-    return null;
+    }
   }
 
   /**
-   * HashMap collision list entry.
+   * A class and its direct subtypes.
    */
   static final class Entry {
     final Class clazz;
     Entry[] subtypes;
-    Entry next;
 
-    Entry(Class clazz, Entry next) {
+    Entry(Class clazz) {
       this.clazz=clazz;
-      this.next=next;
     }
 
     public void addSubtypeIfNotExists(Entry subtype) {
@@ -23,9 +23,17 @@
 
 package fr.umlv.jmmf.reflect;
 
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
-/**
+/** dispatch entries of the target classes of a multi-method.
+    An open addressing table, the classes and their entries
+    are stored in two parallel arrays.
+    get() doesn't lock, put() publishes a copy of the arrays,
+    so a writer must hold the lock of the implementation.
+    The entries of the classes that may be unloaded before
+    the multi-method are stored in a {@link WeakClassMap}.
+
     @author Remi Forax
     @version 0.9.0
  */
@@ -33,31 +41,37 @@ final class DispatchMap {
   /**
    */
   public DispatchMap() {
-    table=new Entry[8];
+    table=new Table(new Class[8],new Entry[8],0);
   }
 
-  /**
+  /** copy the entries of a table in new arrays of length slots,
+      the entries are shared.
    */
-  private void rehash() {
-    int oldCapacity = table.length;
-    Entry oldMap[] = table;
-
-    int newCapacity = oldCapacity<<1;
-    Entry newMap[] = new Entry[newCapacity];
-    int mask=newCapacity-1;
-
-    for (int i = oldCapacity ; i-- > 0 ;) {
-      for (Entry old = oldMap[i] ; old != null ; ) {
-        Entry e = old;
-        old = old.next;
-
-        int index = e.clazz.hashCode() & mask;
-        e.next = newMap[index];
-        newMap[index] = e;
+  private static Table rehash(Table tab,int length,int shift) {
+    Class[] oldKeys=tab.keys;
+    Entry[] oldEntries=tab.entries;
+
+    Class[] keys=new Class[length];
+    Entry[] entries=new Entry[length];
+    for (int i=oldKeys.length;--i>=0;) {
+      Class clazz=oldKeys[i];
+      if (clazz!=null) {
+        int index=freeSlot(keys,shift,clazz);
+        keys[index]=clazz;
+        entries[index]=oldEntries[i];
       }
     }
-    
-    this.table = newMap;
+    return new Table(keys,entries,shift);
+  }
+
+  /** return the first free slot for the class.
+   */
+  private static int freeSlot(Class[] keys,int shift,Class clazz) {
+    int mask=keys.length-1;
+    int index=(clazz.hashCode()>>>shift) & mask;
+    while(keys[index]!=null)
+      index=(index+1) & mask;
+    return index;
   }
 
   /** the class mustn't be already inserted.
@@ -65,62 +79,182 @@ final class DispatchMap {
   public Entry put(Class clazz,BitMask visibility,
     BitMask staticVisibility,Method[] dispatchTable)
   {
-    if (count > (table.length>>1)) {
+    Table tab=table;
+    int length=tab.keys.length;
+    boolean rehash=count > (length>>1);
+    if (rehash) {
       // Rehash the table if the threshold is exceeded
-      rehash();
+      tab=rehash(tab,length<<1,0);
     }
-
-    Entry[] tab=table;
-    int index=clazz.hashCode()& (tab.length-1);
+    else
+      tab=new Table(tab.keys.clone(),tab.entries.clone(),
+        tab.shift);
 
     // Creates the new entry.
+    Entry entry=new Entry(clazz,visibility,
+      staticVisibility,dispatchTable);
+
+    int index=freeSlot(tab.keys,tab.shift,clazz);
+    tab.keys[index]=clazz;
+    tab.entries[index]=entry;
     count++;
-    return tab[index]=new Entry(clazz,visibility,
-      staticVisibility,dispatchTable,tab[index]);
+
+    // publish
+    table=tab;
+
+    // the classes have moved
+    if (rehash && frozen)
+      freeze();
+    return entry;
   }
 
   /** .
    */
   public Entry get(Class clazz) {
-    Entry[] tab=table;
+    Table tab=table;
+    Class[] keys=tab.keys;
+    int mask=keys.length-1;
+    for(int index=(clazz.hashCode()>>>tab.shift) & mask;;
+      index=(index+1) & mask) {
+      Class key=keys[index];
+      if (key==clazz)
+        return tab.entries[index];
+      if (key==null)
+        return getTransient(clazz);
+    }
+  }
+
+  private Entry getTransient(Class clazz) {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      return null;
+    return (Entry)transients.get(clazz);
+  }
 
-    int index=clazz.hashCode() & (tab.length-1);
-    for(Entry e=tab[index];e!=null;e=e.next)
-      if (e.clazz==clazz)
-        return e;
+  /** same as put() for a class that may be unloaded
+      before the multi-method.
+   */
+  public Entry putTransient(Class clazz,BitMask visibility,
+    BitMask staticVisibility,Method[] dispatchTable)
+  {
+    WeakClassMap transients=this.transients;
+    if (transients==null)
+      this.transients=transients=new WeakClassMap();
 
-    return null;
+    Entry entry=new Entry(clazz,visibility,
+      staticVisibility,dispatchTable);
+    transients.put(clazz,entry);
+    return entry;
+  }
+
+  /** place all classes in the first slot they are looked for,
+      if a table at most 8 times larger allows it.
+      The classes inserted after may still collide,
+      the table is placed again each time it is rehashed.
+   */
+  public void freeze() {
+    frozen=true;
+
+    Table tab=table;
+    PerfectHash hash=PerfectHash.find(tab.keys,tab.keys.length);
+    if (hash!=null)
+      table=rehash(tab,hash.getSize(),hash.getShift());
+  }
+
+  /**
+   * The arrays of the hash table, both indexed alike.
+   */
+  static final class Table {
+    Table(Class[] keys,Entry[] entries,int shift) {
+      this.keys=keys;
+      this.entries=entries;
+      this.shift=shift;
+    }
+
+    final Class[] keys;
+    final Entry[] entries;
+    final int shift;
   }
   
-  final class Entry {
+  static final class Entry {
     final Class clazz;
 
     final BitMask visibility;
     final BitMask staticVisibility;
     final Method[] dispatchTable;
 
-    Entry next;
+    /** pre-adapted calls of the dispatch table methods,
+        lazily created by {@link #invoke(int,Object,Object[]) invoke}.
+     */
+    final Invoker[] invokers;
 
     public Entry(Class clazz,
       BitMask visibility,BitMask staticVisibility,
-      Method[] dispatchTable,
-      Entry next)
+      Method[] dispatchTable)
     {
       this.clazz=clazz;
       this.visibility=visibility;
       this.staticVisibility=staticVisibility;
       this.dispatchTable=dispatchTable;
-      this.next=next;
+      this.invokers=(dispatchTable==null)?null:
+        new Invoker[dispatchTable.length];
+    }
+
+    /** call the method at index index of the dispatch table
+        with the same contract as
+        {@link Method#invoke(Object,Object[]) Method.invoke},
+        the arguments must be of the types the method was
+        selected for.
+     */
+    Object invoke(int index,Object target,Object[] args)
+      throws IllegalAccessException, InvocationTargetException {
+      return getInvoker(index).invoke(target,args);
+    }
+
+    /** same as invoke(index,target,new Object[]{arg}).
+     */
+    Object invoke1(int index,Object target,Object arg)
+      throws IllegalAccessException, InvocationTargetException {
+      return getInvoker(index).invoke1(target,arg);
+    }
+
+    /** same as invoke(index,target,new Object[]{arg0,arg1}).
+     */
+    Object invoke2(int index,Object target,Object arg0,Object arg1)
+      throws IllegalAccessException, InvocationTargetException {
+      return getInvoker(index).invoke2(target,arg0,arg1);
+    }
+
+    Invoker getInvoker(int index) {
+      Invoker invoker=invokers[index];
+      if (invoker==null) {
+        Method method=dispatchTable[index];
+        invoker=Invoker.create(method);
+
+        // racy but all threads create an equivalent invoker
+        invokers[index]=invoker;
+      }
+      return invoker;
     }
   }
 
   /**
-   * The hash table data.
+   * The hash table data, replaced and never modified.
+   */
+  private volatile Table table;
+
+  /**
+   * The entries of the classes that may be unloaded or null.
    */
-  private Entry[] table;
+  private volatile WeakClassMap transients;
 
   /**
    * The total number of mappings in the hash table.
    */
   private int count;
+
+  /**
+   * True if the classes are placed by a perfect hash.
+   */
+  private boolean frozen;
 }
@@ -58,6 +58,18 @@ abstract class Impl {
   public abstract int getMethodIndex(Object[] args,BitMask mask)
     throws NoSuchMethodException, MultipleMethodsException;
 
+  /** same as getMethodIndex(new Object[]{arg},mask)
+      for a multi-method with one parameter.
+   */
+  public abstract int getMethodIndex1(Object arg,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException;
+
+  /** same as getMethodIndex(new Object[]{arg0,arg1},mask)
+      for a multi-method with two parameters.
+   */
+  public abstract int getMethodIndex2(Object arg0,Object arg1,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException;
+
   /**
    */
   public abstract int getMapIndex(Class[] types);
@@ -71,6 +83,28 @@ abstract class Impl {
   public abstract void endsConstruction();
 
 
+  /** annotate a class for all parameters, as the class
+      of an argument.
+   */
+  public abstract void warmUp(Class clazz);
+
+  /** build tables without collision of the annotations
+      of the classes seen so far, upgrades stay frozen.
+      Called while holding the lock.
+   */
+  public abstract void freeze();
+
+  /** return true if the class lives as long as the
+      multi-methods, so it can be stored in the tables.
+   */
+  public abstract boolean isAnchored(Class clazz);
+
+  /** return the object to lock while using the implementation,
+      shared by all the multi-methods using it and kept when the
+      implementation is upgraded.
+   */
+  public abstract Object getLock();
+
   /** return the multi-method of a given class.
    */
   public abstract MultiMethod getMultiMethod(Class clazz,boolean onlyPublic);
@@ -0,0 +1,267 @@
+package fr.umlv.jmmf.reflect;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/** a call to one method with the contract
+    of {@link Method#invoke(Object,Object[]) Method.invoke}.
+
+    Methods with a non void return type and at most two reference
+    parameters, the target of an instance method counting
+    as a parameter, are called by a class generated by the
+    {@link LambdaMetafactory}, which calls the method directly.
+    Other methods, and methods the factory can't access,
+    are called using reflection.
+
+    The methods {@link #invoke1(Object,Object) invoke1} and
+    {@link #invoke2(Object,Object,Object) invoke2} avoid the
+    argument array when the method is generated.
+
+    The arguments must be of the types of the method parameters,
+    exceptions raised by the generated classes are all considered
+    as raised by the method.
+
+    not an interface for performance reasons !!!!
+ */
+public abstract class Invoker {
+  Invoker() {
+  }
+
+  /** call the method.
+   */
+  public abstract Object invoke(Object target,Object[] args)
+    throws IllegalAccessException, InvocationTargetException;
+
+  /** call a method with one parameter.
+   */
+  public Object invoke1(Object target,Object arg)
+    throws IllegalAccessException, InvocationTargetException {
+    return invoke(target,new Object[]{arg});
+  }
+
+  /** call a method with two parameters.
+   */
+  public Object invoke2(Object target,Object arg0,Object arg1)
+    throws IllegalAccessException, InvocationTargetException {
+    return invoke(target,new Object[]{arg0,arg1});
+  }
+
+  /** create the invoker of a method.
+      The method must be accessible, see
+      {@link java.lang.reflect.AccessibleObject#setAccessible(boolean)
+       setAccessible}.
+   */
+  public static Invoker create(Method method) {
+    Class[] parameterTypes=method.getParameterTypes();
+    Class returnType=method.getReturnType();
+    boolean isStatic=Modifier.isStatic(method.getModifiers());
+
+    if (returnType==void.class ||
+        parameterTypes.length+(isStatic?0:1)>2)
+      return new ReflectInvoker(method);
+    for(int i=0;i<parameterTypes.length;i++)
+      if (parameterTypes[i].isPrimitive())
+        return new ReflectInvoker(method);
+
+    try {
+      return generate(method,returnType,isStatic);
+    } catch(Throwable t) {
+      // the method isn't accessible from a lookup
+      return new ReflectInvoker(method);
+    }
+  }
+
+  private static Invoker generate(Method method,
+    Class returnType,boolean isStatic) throws Throwable {
+
+    Class declaringClass=method.getDeclaringClass();
+    MethodHandles.Lookup lookup=MethodHandles.privateLookupIn(
+      declaringClass,MethodHandles.lookup());
+    MethodHandle implementation=lookup.unreflect(method);
+
+    // the instantiated type boxes the return type,
+    // the generated class does the boxing
+    MethodType type=implementation.type();
+    type=type.changeReturnType(MethodType.methodType(returnType).
+      wrap().returnType());
+
+    switch(type.parameterCount()) {
+      case 0:
+        return new SupplierInvoker((Supplier)spin(lookup,Supplier.class,
+          "get",implementation,type));
+      case 1:
+        return new FunctionInvoker((Function)spin(lookup,Function.class,
+          "apply",implementation,type),isStatic);
+      default:
+        return new BiFunctionInvoker((BiFunction)spin(lookup,
+          BiFunction.class,"apply",implementation,type),isStatic);
+    }
+  }
+
+  private static Object spin(MethodHandles.Lookup lookup,
+    Class functionalInterface,String name,
+    MethodHandle implementation,MethodType type) throws Throwable {
+
+    CallSite site=LambdaMetafactory.metafactory(lookup,name,
+      MethodType.methodType(functionalInterface),type.erase(),
+      implementation,type);
+    return site.getTarget().invoke();
+  }
+
+  static void checkLength(Object[] args,int length) {
+    int argLength=(args==null)?0:args.length;
+    if (argLength!=length)
+      throw wrongNumberOfArguments();
+  }
+
+  static IllegalArgumentException wrongNumberOfArguments() {
+    return new IllegalArgumentException("wrong number of arguments");
+  }
+
+  static void checkTarget(Object target) {
+    if (target==null)
+      throw new NullPointerException("target");
+  }
+
+  /** static method without parameter.
+   */
+  static final class SupplierInvoker extends Invoker {
+    SupplierInvoker(Supplier supplier) {
+      this.supplier=supplier;
+    }
+
+    public Object invoke(Object target,Object[] args)
+      throws InvocationTargetException {
+      checkLength(args,0);
+      try {
+        return supplier.get();
+      } catch(Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+    public Object invoke1(Object target,Object arg) {
+      throw wrongNumberOfArguments();
+    }
+
+    public Object invoke2(Object target,Object arg0,Object arg1) {
+      throw wrongNumberOfArguments();
+    }
+
+    private final Supplier supplier;
+  }
+
+  /** static method with one parameter or
+      instance method without parameter.
+   */
+  static final class FunctionInvoker extends Invoker {
+    FunctionInvoker(Function function,boolean isStatic) {
+      this.function=function;
+      this.isStatic=isStatic;
+    }
+
+    public Object invoke(Object target,Object[] args)
+      throws InvocationTargetException {
+      if (isStatic) {
+        checkLength(args,1);
+        return invoke1(target,args[0]);
+      }
+
+      checkLength(args,0);
+      checkTarget(target);
+      try {
+        return function.apply(target);
+      } catch(Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+    public Object invoke1(Object target,Object arg)
+      throws InvocationTargetException {
+      if (!isStatic)
+        throw wrongNumberOfArguments();
+      try {
+        return function.apply(arg);
+      } catch(Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+    public Object invoke2(Object target,Object arg0,Object arg1) {
+      throw wrongNumberOfArguments();
+    }
+
+    private final Function function;
+    private final boolean isStatic;
+  }
+
+  /** static method with two parameters or
+      instance method with one parameter.
+   */
+  static final class BiFunctionInvoker extends Invoker {
+    BiFunctionInvoker(BiFunction function,boolean isStatic) {
+      this.function=function;
+      this.isStatic=isStatic;
+    }
+
+    public Object invoke(Object target,Object[] args)
+      throws InvocationTargetException {
+      if (isStatic) {
+        checkLength(args,2);
+        return invoke2(target,args[0],args[1]);
+      }
+      checkLength(args,1);
+      return invoke1(target,args[0]);
+    }
+
+    public Object invoke1(Object target,Object arg)
+      throws InvocationTargetException {
+      if (isStatic)
+        throw wrongNumberOfArguments();
+      checkTarget(target);
+      try {
+        return function.apply(target,arg);
+      } catch(Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+    public Object invoke2(Object target,Object arg0,Object arg1)
+      throws InvocationTargetException {
+      if (!isStatic)
+        throw wrongNumberOfArguments();
+      try {
+        return function.apply(arg0,arg1);
+      } catch(Throwable t) {
+        throw new InvocationTargetException(t);
+      }
+    }
+
+    private final BiFunction function;
+    private final boolean isStatic;
+  }
+
+  /** call using reflection.
+   */
+  static final class ReflectInvoker extends Invoker {
+    ReflectInvoker(Method method) {
+      this.method=method;
+    }
+
+    public Object invoke(Object target,Object[] args)
+      throws IllegalAccessException, InvocationTargetException {
+      return method.invoke(target,args);
+    }
+
+    private final Method method;
+  }
+}
@@ -23,7 +23,9 @@
 
 package fr.umlv.jmmf.reflect;
 
-/**
+/** parameter types of the methods of a multi-method
+    and their slots, an open addressing table, the entries are
+    placed by the hash of their types with linear probing.
     @author Remi Forax
     @version 0.9.0
  */
@@ -48,13 +50,12 @@ final class MethodMap {
     int mask=newCapacity-1;
 
     for (int i = oldCapacity ; i-- > 0 ;) {
-      for (Entry old = oldMap[i] ; old != null ; ) {
-         Entry e = old;
-         old = old.next;
-
-         int index_hash = e.hash % mask;
-         e.next = newMap[index_hash];
-         newMap[index_hash] = e;
+      Entry e = oldMap[i];
+      if (e != null) {
+        int index_hash = e.hash & mask;
+        while(newMap[index_hash] != null)
+          index_hash = (index_hash+1) & mask;
+        newMap[index_hash] = e;
       }
     }
 
@@ -85,35 +86,29 @@ final class MethodMap {
     Entry[] tab=table;
 
     int hash=hashCode(types);
-    int index_hash=hash & (tab.length-1);
-
-loop:for(Entry e=tab[index_hash];e!=null;e=e.next)
-      if (e.hash==hash) {
-
-        Class[] eTypes=e.types;
-        int i=types.length;
-        if (eTypes.length!=i)
-          break loop;
-
-        for(;--i>=0;)
-          if (types[i]!=eTypes[i])
-            break loop;
+    int mask=tab.length-1;
+    int index_hash=hash & mask;
 
+    for(Entry e;(e=tab[index_hash])!=null;
+      index_hash=(index_hash+1) & mask)
+      if (e.hash==hash && equals(e.types,types))
         return e;
-      }
 
     if (count >= array.length) {
       // Rehash the table if the threshold is exceeded
       rehash();
 
       tab=table;
+      mask=tab.length-1;
+      index_hash=hash & mask;
+      while(tab[index_hash]!=null)
+        index_hash=(index_hash+1) & mask;
     }
 
     int index=count++;
 
     // Creates the new entry.
-    Entry entry=new Entry(types,hash,index,
-      tab[index_hash]);
+    Entry entry=new Entry(types,hash,index);
 
     tab[index_hash]=entry;
     array[index]=entry;
@@ -121,6 +116,17 @@ loop:for(Entry e=tab[index_hash];e!=null;e=e.next)
     return entry;
   }
 
+  private static boolean equals(Class[] types1,Class[] types2) {
+    int i=types1.length;
+    if (types2.length!=i)
+      return false;
+
+    for(;--i>=0;)
+      if (types1[i]!=types2[i])
+        return false;
+    return true;
+  }
+
   /** return parameter types for a specified slot.
    */
   public Entry getEntry(int slot) {
@@ -134,20 +140,18 @@ loop:for(Entry e=tab[index_hash];e!=null;e=e.next)
   }
 
   /**
-   * HashMap collision list entry.
+   * Parameter types and their slot.
    */
   static final class Entry {
-    Entry(Class[] types, int hash, int slot, Entry next) {
+    Entry(Class[] types, int hash, int slot) {
       this.slot=slot;
       this.types=types;
       this.hash=hash;
-      this.next=next;
     }
 
     final Class[] types;
     final int slot;
     final int hash;
-    Entry next;
   }
 
   /**
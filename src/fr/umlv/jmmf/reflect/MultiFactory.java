@@ -41,7 +41,20 @@ public class MultiFactory
       @see #getDefaultFactory()
    */
   public MultiFactory() {
-    this.support=new TypeSupport();
+    this(true);
+  }
+
+  /** Construct a multi-method factory with a type model.
+
+      @param shareImpl true if the multi-methods with the same
+       name and number of parameters share their implementation,
+       i.e. their annotations, hierarchy and method map,
+       false if each multi-method has its own, which permits
+       to bench the implementations.
+   */
+  public MultiFactory(boolean shareImpl) {
+    this.families=new Families();
+    this.shareImpl=shareImpl;
   }
 
   /** construct a multi-method by taking all method named name
@@ -67,42 +80,104 @@ public class MultiFactory
       @param length number of parameters.
       @param onlyPublic true if only the public methods must be used.
 
+      Creations are serialized because all multi-methods of a factory
+      share the same type support.
+
+      A declaring class that may be unloaded before the factory,
+      like a class of a plugin, gets a type support and
+      implementations of its own, kept in the class itself,
+      so the factory doesn't keep it nor its loader.
+
       @exception IllegalArgumentException if the class clazz contains
        no method named name or all methods found don't have the same
        number of parameters.
    */
-  public MultiMethod create(Class clazz,String name,int length,
+  public synchronized MultiMethod create(Class clazz,String name,int length,
     boolean onlyPublic)
   {
-    NameLengthPair pair=new NameLengthPair(name,length);
+    Families families=(isAnchored(clazz))?this.families:
+      (Families)transientFamilies.get(clazz);
+    MultiMethodMap family=families.get(name,length,shareImpl);
 
-    Impl impl;
+    // multi-methods already created may be dispatching
+    synchronized(family) {
+      return family.impl.getMultiMethod(clazz,onlyPublic);
+    }
+  }
 
-    // don't share implementation to permit to bench !!!
-    /*
-    Object o=map.get(pair);
-    if (o==null) {
-      impl=new Bit32Impl(name,length,support);
-      map.put(pair,impl);
+  /** return true if the class can't be unloaded before the factory,
+      i.e. if it's loaded by the loader of the factory or one
+      of its parents and it isn't a hidden class.
+   */
+  private static boolean isAnchored(Class clazz) {
+    if (clazz.isHidden())
+      return false;
+    ClassLoader loader=clazz.getClassLoader();
+    if (loader==null)
+      return true;
+    for(ClassLoader l=MultiFactory.class.getClassLoader();l!=null;
+      l=l.getParent())
+      if (l==loader)
+        return true;
+    return false;
+  }
+
+  /** return true if the multi-methods with the same name
+      and number of parameters share their implementation.
+   */
+  public boolean isShareImpl() {
+    return shareImpl;
+  }
+
+  /** the implementations created with one type support.
+   */
+  private static final class Families {
+    /** return the multi-method map of the implementation of
+        name and length, the one already created if shareImpl
+        is true.
+     */
+    MultiMethodMap get(String name,int length,boolean shareImpl) {
+      NameLengthPair pair=new NameLengthPair(name,length);
+
+      // the map contains the multi-method map of each implementation,
+      // which knows the current implementation even after an upgrade
+      MultiMethodMap family=(shareImpl)?(MultiMethodMap)map.get(pair):null;
+      if (family==null) {
+        family=new Bit32Impl(name,length,support).multiMethodMap;
+        if (shareImpl)
+          map.put(pair,family);
+      }
+      return family;
     }
-    else {
-      impl=(Impl)o;
-    }*/
-    
-    impl=new Bit32Impl(name,length,support);
 
-    return impl.getMultiMethod(clazz,onlyPublic);
+    private final TypeSupport support=new TypeSupport();
+    private final HashMap map=new HashMap();
   }
 
-  private TypeSupport support;
-  private HashMap map=new HashMap();
+  /** implementations of the anchored declaring classes.
+   */
+  private final Families families;
+
+  /** implementations of each declaring class that isn't anchored,
+      the value of a class references the class but not the factory.
+   */
+  private final ClassValue transientFamilies=new ClassValue() {
+    protected Object computeValue(Class type) {
+      return new Families();
+    }
+  };
+
+  private final boolean shareImpl;
 
   /** return the default factory instance.
+      It shares implementations unless the system property
+      fr.umlv.jmmf.shareImpl is set to false.
    */
   public static MultiFactory getDefaultFactory() {
     return defaultFactory;
   }
 
   private final static MultiFactory defaultFactory=
-    new MultiFactory();
+    new MultiFactory(!"false".equals(
+      System.getProperty("fr.umlv.jmmf.shareImpl")));
 }
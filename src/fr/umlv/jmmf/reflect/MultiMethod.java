@@ -29,6 +29,16 @@ import java.lang.reflect.*;
 /** The multi-method object.
 
     This class support the 1.2 security model.
+
+    A multi-method may be shared between threads, the most specific
+    method is searched without lock. The dispatch data structures
+    are lazily completed when a class is seen for the first time,
+    while holding the lock of the implementation, which may itself
+    be shared by the multi-methods with the same name and number of
+    parameters, and published by replacing a copy, so a search
+    never sees a structure being modified.
+    The method found is called through a method handle created
+    at its first call.
     The current implementation of the multi-method mecanism
     desactivate default Java language access control checks.
     see {@link java.lang.reflect.AccessibleObject AccessibleObject}.
@@ -75,20 +85,23 @@ public final class MultiMethod {
       an implementation.
       This method is called by MultiMethodFactory.create()
    */
-  MultiMethod(Impl impl,boolean onlyPublic) {
+  MultiMethod(MultiMethodMap family,boolean onlyPublic) {
 
-    this.impl=impl;
+    this.family=family;
     this.onlyPublic=onlyPublic;
 
     // PERF: perhaps a lazy allocation ??
     this.dispatchMap=new DispatchMap();
+
+    // one lookup per argument is enough with one parameter
+    this.tupleCache=(family.impl.getArgLength()>=2)?TupleCache.create():null;
   }
 
   /** continue initialisation.
    */
   void init(Class declaringClass) {
     // find declaring class entry
-    this.hostEntry=impl.getTypeSupport().getClassEntry(declaringClass);
+    this.hostEntry=family.impl.getTypeSupport().getClassEntry(declaringClass);
 
     // create declaring class dispatch entry
     DispatchMap.Entry hostDispatchEntry=createHostDispatchEntry(
@@ -100,19 +113,12 @@ public final class MultiMethod {
         +getDeclaringClass());
 
     // end data structure construction
-    impl.endsConstruction();
+    family.impl.endsConstruction();
 
     // init declaring dispatch entry field
     this.hostDispatchEntry=hostDispatchEntry;
   }
 
-  /** call to update implementation
-   */
-  void update(Impl impl) {
-    //System.out.println("MultiMethod.update: "+impl);
-    this.impl=impl;
-  }
-
   /** return the most specific method of the multi-method according
       to the type of all items if args array on a specified target
       object.
@@ -133,12 +139,34 @@ public final class MultiMethod {
   public Method getMethod(Class target,Class[] types)
     throws NoSuchMethodException, MultipleMethodsException {
 
-    Method method;
     if (target==null)
-      method=getStaticMethod(types);
+      return getStaticMethod(types);
     else
-      method=getTargetMethod(target,types);
-    return method;
+      return getTargetMethod(target,types);
+  }
+
+  /** return the invoker of the most specific method of the
+      multi-method according to the types, the same invoker
+      that {@link #invoke(Object, Object[]) invoke} uses.
+
+      @param target class in which the most specific method is declared.
+      @param types parameter types used to find the most specific method.
+
+      @see #getMethod(Class, Class[])
+   */
+  public Invoker getInvoker(Class target,Class[] types)
+    throws NoSuchMethodException, MultipleMethodsException {
+
+    DispatchMap.Entry entry;
+    int index;
+    if (target==null) {
+      entry=hostDispatchEntry;
+      index=family.impl.getMethodIndex(types,entry.staticVisibility);
+    } else {
+      entry=getTargetEntry(target);
+      index=family.impl.getMethodIndex(types,entry.visibility);
+    }
+    return entry.getInvoker(index);
   }
 
   /** call the most specific method of the multi-method according
@@ -169,12 +197,117 @@ public final class MultiMethod {
     throws IllegalAccessException, InvocationTargetException,
            NoSuchMethodException, MultipleMethodsException {
 
-    Method method;
-    if (target==null)
-      method=getStaticMethod(args);
-    else
-      method=getTargetMethod(target.getClass(),args);
-    return method.invoke(target,args);
+    DispatchMap.Entry entry;
+    int index;
+    if (target==null) {
+      entry=hostDispatchEntry;
+      index=getMethodIndex(args,entry.staticVisibility);
+    } else {
+      entry=getTargetEntry(target.getClass());
+      index=getMethodIndex(args,entry.visibility);
+    }
+    return entry.invoke(index,target,args);
+  }
+
+  /** same as invoke(target,new Object[]{arg}) for
+      a multi-method with one parameter, without
+      allocating an array of arguments.
+
+      @exception IllegalArgumentException if the multi-method
+       hasn't one parameter.
+      @see #invoke(Object, Object[])
+   */
+  public Object invoke1(Object target,Object arg)
+    throws IllegalAccessException, InvocationTargetException,
+           NoSuchMethodException, MultipleMethodsException {
+
+    DispatchMap.Entry entry;
+    int index;
+    if (family.impl.getArgLength()!=1)
+      throw Invoker.wrongNumberOfArguments();
+    if (target==null) {
+      entry=hostDispatchEntry;
+      index=family.impl.getMethodIndex1(arg,entry.staticVisibility);
+    } else {
+      entry=getTargetEntry(target.getClass());
+      index=family.impl.getMethodIndex1(arg,entry.visibility);
+    }
+    return entry.invoke1(index,target,arg);
+  }
+
+  /** same as invoke(target,new Object[]{arg0,arg1}) for
+      a multi-method with two parameters, without
+      allocating an array of arguments.
+
+      @exception IllegalArgumentException if the multi-method
+       hasn't two parameters.
+      @see #invoke(Object, Object[])
+   */
+  public Object invoke2(Object target,Object arg0,Object arg1)
+    throws IllegalAccessException, InvocationTargetException,
+           NoSuchMethodException, MultipleMethodsException {
+
+    DispatchMap.Entry entry;
+    int index;
+    if (family.impl.getArgLength()!=2)
+      throw Invoker.wrongNumberOfArguments();
+    if (target==null) {
+      entry=hostDispatchEntry;
+      index=getMethodIndex2(arg0,arg1,entry.staticVisibility);
+    } else {
+      entry=getTargetEntry(target.getClass());
+      index=getMethodIndex2(arg0,arg1,entry.visibility);
+    }
+    return entry.invoke2(index,target,arg0,arg1);
+  }
+
+  /** same as impl.getMethodIndex(args,mask) but looks
+      in the tuple cache first.
+   */
+  private int getMethodIndex(Object[] args,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException {
+
+    TupleCache cache=tupleCache;
+    if (cache==null)
+      return family.impl.getMethodIndex(args,mask);
+
+    int index=cache.get(mask,args);
+    if (index==-1) {
+      index=family.impl.getMethodIndex(args,mask);
+      if (args!=null)
+        cache(cache,mask,TupleCache.types(args),index);
+    }
+    return index;
+  }
+
+  /** same as impl.getMethodIndex2(arg0,arg1,mask) but looks
+      in the tuple cache first.
+   */
+  private int getMethodIndex2(Object arg0,Object arg1,BitMask mask)
+    throws NoSuchMethodException, MultipleMethodsException {
+
+    TupleCache cache=tupleCache;
+    if (cache==null)
+      return family.impl.getMethodIndex2(arg0,arg1,mask);
+
+    int index=cache.get2(mask,arg0,arg1);
+    if (index==-1) {
+      index=family.impl.getMethodIndex2(arg0,arg1,mask);
+      cache(cache,mask,TupleCache.types(new Object[]{arg0,arg1}),index);
+    }
+    return index;
+  }
+
+  /** insert a tuple in the cache unless one of its classes
+      may be unloaded, the cache would keep it.
+   */
+  private void cache(TupleCache cache,BitMask mask,Class[] types,
+    int index) {
+    Impl impl=family.impl;
+    for(int i=types.length;--i>=0;)
+      if (!impl.isAnchored(types[i]))
+        return;
+    cache.put(mask,types,index);
   }
 
   /** call the most specific method of the multi-method according
@@ -205,94 +338,74 @@ public final class MultiMethod {
     throws IllegalAccessException, InvocationTargetException,
            NoSuchMethodException, MultipleMethodsException {
 
-    Method method;
-    if (target==null)
-      method=getStaticMethod(types);
-    else
-      method=getTargetMethod(target.getClass(),types);
-    return method.invoke(target,args);
-  }
-
-  /**
-   */
-  private Method getTargetMethod(Class target,Class[] args)
-    throws NoSuchMethodException, MultipleMethodsException {
-
-    //System.out.println("getTargetMethod "+target);
-
-    DispatchMap.Entry entry=dispatchMap.get(target);
-    if (entry==null) {
-      // test if the target class is a subtype of the current class
-      TypeSupport.ClassEntry targetEntry=
-        impl.getTypeSupport().getClassEntry(target);
-
-      if (!hostEntry.isAssignableFrom(targetEntry))
-        throw new IllegalArgumentException("bad target class");
-
-      // get infos from implementation and
-      // process dispatch table of target class
-      entry=createDispatchEntry(target,new ArrayList());
-
-      // end data structure construction
-      impl.endsConstruction();
+    DispatchMap.Entry entry;
+    int index;
+    if (target==null) {
+      entry=hostDispatchEntry;
+      index=family.impl.getMethodIndex(types,entry.staticVisibility);
+    } else {
+      entry=getTargetEntry(target.getClass());
+      index=family.impl.getMethodIndex(types,entry.visibility);
     }
 
-    int index=impl.getMethodIndex(args,entry.visibility);
-    return entry.dispatchTable[index];
+    // the method was selected for types, not for args
+    int length=(args==null)?0:Math.min(args.length,types.length);
+    for(int i=0;i<length;i++) {
+      Object arg=args[i];
+      Class type=types[i];
+      if (arg!=null && !type.isPrimitive() && !type.isInstance(arg))
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    return entry.invoke(index,target,args);
   }
 
   /**
    */
-  private Method getStaticMethod(Class[] args)
+  private Method getTargetMethod(Class target,Class[] args)
     throws NoSuchMethodException, MultipleMethodsException {
 
-    //System.out.println("getStaticMethod "+hostDispatchEntry.clazz);
-
-    DispatchMap.Entry entry=hostDispatchEntry;
-    int index=impl.getMethodIndex(args,entry.staticVisibility);
+    //System.out.println("getTargetMethod "+target);
 
+    DispatchMap.Entry entry=getTargetEntry(target);
+    int index=family.impl.getMethodIndex(args,entry.visibility);
     return entry.dispatchTable[index];
   }
 
-  /**
+  /** return the dispatch entry of the target class,
+      creating it while holding the lock if needed.
+      The entry must be read before the implementation,
+      an entry is published after the upgrades of
+      the implementation it needs.
    */
-  private Method getTargetMethod(Class target,Object[] args)
-    throws NoSuchMethodException, MultipleMethodsException {
-
-    //System.out.println("getMethod "+target);
-
+  private DispatchMap.Entry getTargetEntry(Class target) {
     DispatchMap.Entry entry=dispatchMap.get(target);
-    if (entry==null) {
-      // test if the target class is a subtype of the current class
-      TypeSupport.ClassEntry targetEntry=
-        impl.getTypeSupport().getClassEntry(target);
-
-      if (!hostEntry.isAssignableFrom(targetEntry))
-        throw new IllegalArgumentException("bad target class");
-
-      // get infos from implementation and
-      // process dispatch table of target class
-      entry=createDispatchEntry(target,new ArrayList());
-
-      // end data structure construction
-      impl.endsConstruction();
+    if (entry!=null)
+      return entry;
+
+    synchronized(family) {
+      entry=dispatchMap.get(target);
+      if (entry==null) {
+        // test if the target class is a subtype of the current class
+        if (!family.impl.getTypeSupport().isAssignableFrom(hostEntry,target))
+          throw new IllegalArgumentException("bad target class");
+
+        // get infos from implementation and
+        // process dispatch table of target class
+        entry=createDispatchEntry(target,new ArrayList());
+      }
+      return entry;
     }
-
-    int index=impl.getMethodIndex(args,entry.visibility);
-    return entry.dispatchTable[index];
   }
 
   /**
    */
-  private Method getStaticMethod(Object[] args)
+  private Method getStaticMethod(Class[] args)
     throws NoSuchMethodException, MultipleMethodsException {
 
     //System.out.println("getStaticMethod "+hostDispatchEntry.clazz);
 
     DispatchMap.Entry entry=hostDispatchEntry;
-    int index=impl.getMethodIndex(args,entry.staticVisibility);
-
-    //System.out.println("getIndex "+index);
+    int index=family.impl.getMethodIndex(args,entry.staticVisibility);
 
     return entry.dispatchTable[index];
   }
@@ -305,8 +418,8 @@ public final class MultiMethod {
     // DEBUG
     // System.out.println("create host dispatch entry "+target);
 
-    String name=impl.getName();
-    int argLength=impl.getArgLength();
+    String name=family.impl.getName();
+    int argLength=family.impl.getArgLength();
     
     BitMask visibility=new Bit32Mask();
     BitMask staticVisibility=new Bit32Mask();
@@ -330,7 +443,7 @@ public final class MultiMethod {
         // find index of the method
         // OLD VERSION
         // int index=methodMap.getIndex(parameterTypes);
-        int index=impl.getMapIndex(parameterTypes);
+        int index=family.impl.getMapIndex(parameterTypes);
 
         // DEBUG
         // System.out.println(method+" "+index);
@@ -342,7 +455,7 @@ public final class MultiMethod {
 
           // process annotation and partial order
           // for the current method
-          impl.addMethod(parameterTypes,index);
+          family.impl.addMethod(parameterTypes,index);
 
           // insert method in list
           if (index>=listSize) {
@@ -416,8 +529,8 @@ public final class MultiMethod {
       staticVisibility=staticVisibility.or(parent.staticVisibility);
     }
 
-    String name=impl.getName();
-    int argLength=impl.getArgLength();
+    String name=family.impl.getName();
+    int argLength=family.impl.getArgLength();
     //MethodMap methodMap=impl.getMethodMap();
 
     // DEBUG
@@ -439,7 +552,7 @@ public final class MultiMethod {
          continue;
 
        // find index of the method
-       int index=impl.getMapIndex(parameterTypes);
+       int index=family.impl.getMapIndex(parameterTypes);
 
        // DEBUG
        // System.out.println("index "+index);
@@ -449,7 +562,7 @@ public final class MultiMethod {
 
         // process annotation and partial order
         // for the current method
-        impl.addMethod(parameterTypes,index);
+        family.impl.addMethod(parameterTypes,index);
 
          // insert method in list
          list.ensureCapacity(index+1);
@@ -494,6 +607,14 @@ public final class MultiMethod {
     else
       table=null;
 
+    // end data structure construction before publishing
+    // the entry, a search may use it at once
+    family.impl.endsConstruction();
+
+    if (!family.impl.isAnchored(target))
+      return dispatchMap.putTransient(target,visibility,
+        staticVisibility,table);
+
     return dispatchMap.put(target,visibility,
       staticVisibility,table);
   }
@@ -559,6 +680,41 @@ public final class MultiMethod {
       newClass.getPackage();
   }
 
+  /** prepare the multi-method for classes before their first
+      use, as classes of arguments and, for the subclasses of the
+      declaring class, as classes of target objects.
+      A first call with these classes then doesn't take the lock.
+
+      @param classes classes of the arguments and target objects.
+
+      @see #freeze()
+   */
+  public void warmUp(Class[] classes) {
+    Class declaringClass=getDeclaringClass();
+    for(int i=0;i<classes.length;i++) {
+      Class clazz=classes[i];
+      if (declaringClass.isAssignableFrom(clazz))
+        getTargetEntry(clazz);
+      family.impl.warmUp(clazz);
+    }
+  }
+
+  /** replace the hash tables used to find the most specific
+      method by tables without collision for all classes seen
+      so far, typically after {@link #warmUp(Class[]) warmUp}.
+      The classes seen after are still found, through the
+      usual tables.
+      The annotations of the classes are shared by all the
+      multi-methods with the same name and number of parameters,
+      freezing one freezes them for all.
+   */
+  public void freeze() {
+    synchronized(family) {
+      family.impl.freeze();
+      dispatchMap.freeze();
+    }
+  }
+
   /** return a string representation of the multi-method.
    */
   public String toString() {
@@ -580,13 +736,24 @@ public final class MultiMethod {
       multi-method.
    */
   public int getParameterLength() {
-    return impl.getArgLength();
+    return family.impl.getArgLength();
   }
 
   /** return the name of the current multi-method.
    */
   public String getName() {
-    return impl.getName();
+    return family.impl.getName();
+  }
+
+  /** return the number of times the implementation shared
+      by the multi-methods with the same name and number of
+      parameters was replaced by one with larger bit masks,
+      because one of them has more than 32 or 64 methods.
+      Each upgrade also commits a fr.umlv.jmmf.Upgrade
+      flight recorder event.
+   */
+  public int getUpgradeCount() {
+    return family.upgrades;
   }
 
   /** return the class on which the multi-method is
@@ -596,13 +763,23 @@ public final class MultiMethod {
     return hostEntry.clazz;
   }
 
-  Impl impl;
   boolean onlyPublic;
+
+  /** the multi-methods with the same implementation, which
+      knows the current one, all of them see an upgrade at once.
+      Also the lock of the implementation.
+   */
+  final MultiMethodMap family;
   DispatchMap dispatchMap;
 
   DispatchMap.Entry hostDispatchEntry;
   TypeSupport.ClassEntry hostEntry;
 
+  /** indexes of the most specific methods already found
+      or null if the multi-method has one parameter.
+   */
+  final TupleCache tupleCache;
+
   /** construct a multi-method by taking all method named name
       with parameterLength parameter(s) in class clazz.
 
@@ -75,6 +75,22 @@ final class MultiMethodMap {
     count++;
   }
 
+  /** remove a multi-method inserted by put.
+   */
+  public void remove(Class clazz,MultiMethod mm) {
+    Entry[] tab=table;
+    int index=clazz.hashCode() & (tab.length-1);
+    for(Entry e=tab[index],prev=null;e!=null;prev=e,e=e.next)
+      if (e.mm==mm) {
+        if (prev==null)
+          tab[index]=e.next;
+        else
+          prev.next=e.next;
+        count--;
+        return;
+      }
+  }
+
   /** .
    */
   public MultiMethod get(Class clazz,boolean onlyPublic) {
@@ -91,12 +107,6 @@ final class MultiMethodMap {
     return null;
   }
 
-  /** return a special entry iterator on all entries.
-   */
-  public Iterator iterator() {
-    return new Iterator();
-  }
-
   /**
    * HashMap collision list entry.
    */
@@ -112,32 +122,17 @@ final class MultiMethodMap {
     }
   }
 
-  final class Iterator {
-    Entry[] table=MultiMethodMap.this.table;
-    int index=table.length;
-    Entry entry=null;
-
-    public MultiMethod next() {
-      Entry et=entry;
-      int i=index;
-      Entry tab[]=table;
-
-      // Use locals for faster loop iteration
-      while (et==null && i>0) {
-        et=tab[--i];
-      }
+  /**
+   * The current implementation of the multi-methods of the map,
+   * read by all of them, an upgrade replaces it by a successor
+   * already built.
+   */
+  volatile Impl impl;
 
-      entry=et;
-      index=i;
-      if (et!=null) {
-        Entry e=entry;
-        entry=e.next;
-        return e.mm;
-      }
-      else
-        return null;
-    }
-  }
+  /**
+   * The number of upgrades of the implementation.
+   */
+  volatile int upgrades;
 
   /**
    * The hash table data.
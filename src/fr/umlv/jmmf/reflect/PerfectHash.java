@@ -0,0 +1,75 @@
+package fr.umlv.jmmf.reflect;
+
+import java.util.Arrays;
+
+/** a hash function without collision for a fixed set of classes,
+    found by trying table sizes like fr.umlv.jmmf.adapter.PrimitiveTypes
+    but with a shift and a mask instead of a modulo.
+    The open addressing tables use it to place every class in
+    the first slot it is looked for.
+ */
+final class PerfectHash {
+  private PerfectHash(int shift,int size) {
+    this.shift=shift;
+    this.size=size;
+  }
+
+  /** return the shift applied to the hash codes.
+   */
+  public int getShift() {
+    return shift;
+  }
+
+  /** return the size of the table, a power of two.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /** return the slot of a class in a table of size slots.
+   */
+  public static int index(Class clazz,int shift,int size) {
+    return (clazz.hashCode()>>>shift) & (size-1);
+  }
+
+  /** return a function placing the keys without collision in a
+      table of at least minSize slots and at most MAX_GROWTH times
+      more, or null if there is none.
+      @param keys the classes, null values are skipped.
+   */
+  public static PerfectHash find(Class[] keys,int minSize) {
+    for(int size=minSize;size<=minSize*MAX_GROWTH;size<<=1) {
+      int bits=Integer.numberOfTrailingZeros(size);
+      Class[] table=new Class[size];
+
+      // hash codes have at most 31 significant bits
+      for(int shift=0;shift+bits<=31;shift++) {
+        if (!collides(keys,shift,size,table))
+          return new PerfectHash(shift,size);
+        Arrays.fill(table,null);
+      }
+    }
+    return null;
+  }
+
+  /** fill the table and return true at the first collision.
+   */
+  private static boolean collides(Class[] keys,int shift,int size,
+    Class[] table) {
+    for(int i=keys.length;--i>=0;) {
+      Class key=keys[i];
+      if (key==null)
+        continue;
+      int index=index(key,shift,size);
+      if (table[index]!=null)
+        return true;
+      table[index]=key;
+    }
+    return false;
+  }
+
+  private final int shift;
+  private final int size;
+
+  private static final int MAX_GROWTH=8;
+}
@@ -0,0 +1,145 @@
+package fr.umlv.jmmf.reflect;
+
+/** cache of the index of the most specific method of
+    a multi-method with more than one parameter, keyed by
+    the visibility mask and the classes of the arguments,
+    so a call with the same classes does one probe instead
+    of one annotation lookup per argument and a disambiguation.
+
+    A direct mapped table, each tuple has only one slot.
+    The system property fr.umlv.jmmf.tupleCache.size sets the
+    number of slots (64 by default, 0 disables the cache),
+    and fr.umlv.jmmf.tupleCache.eviction what happens when
+    a tuple finds its slot taken: "replace" (the default)
+    replaces the previous tuple, "keep" keeps it, so the first
+    tuples seen are never evicted.
+
+    get() and put() don't lock, a slot holds an immutable
+    line, a reader sees the old or the new one.
+    A cached index never changes, the methods visible through
+    a mask are fixed and their slots are kept by the upgrades.
+ */
+final class TupleCache {
+  /** @param size number of slots, rounded to a power of two.
+      @param replace true if a new tuple evicts the one in its slot.
+   */
+  public TupleCache(int size,boolean replace) {
+    int length=1;
+    while(length<size)
+      length<<=1;
+    this.lines=new Line[length];
+    this.replace=replace;
+  }
+
+  /** return a cache configured by the system properties or null
+      if the cache is disabled.
+   */
+  public static TupleCache create() {
+    return (SIZE==0)?null:new TupleCache(SIZE,REPLACE);
+  }
+
+  /** return the class of an argument, {@link Impl#NULL_CLASS}
+      for null.
+   */
+  private static Class classOf(Object arg) {
+    return (arg==null)?Impl.NULL_CLASS:arg.getClass();
+  }
+
+  private static int hash(BitMask mask) {
+    return System.identityHashCode(mask);
+  }
+
+  private Line line(int hash) {
+    Line[] lines=this.lines;
+    return lines[(hash ^ (hash>>>16)) & (lines.length-1)];
+  }
+
+  /** @return -1 if the tuple of the classes of args
+      isn't in the cache.
+   */
+  public int get(BitMask mask,Object[] args) {
+    if (args==null)
+      return -1;
+
+    int length=args.length;
+    int hash=hash(mask);
+    for(int i=0;i<length;i++)
+      hash=hash*31+classOf(args[i]).hashCode();
+
+    Line line=line(hash);
+    if (line==null || line.mask!=mask)
+      return -1;
+
+    Class[] types=line.types;
+    if (types.length!=length)
+      return -1;
+    for(int i=length;--i>=0;)
+      if (types[i]!=classOf(args[i]))
+        return -1;
+    return line.index;
+  }
+
+  /** same as get(mask,new Object[]{arg0,arg1}).
+   */
+  public int get2(BitMask mask,Object arg0,Object arg1) {
+    Class type0=classOf(arg0);
+    Class type1=classOf(arg1);
+    int hash=(hash(mask)*31+type0.hashCode())*31+type1.hashCode();
+
+    Line line=line(hash);
+    if (line==null || line.mask!=mask)
+      return -1;
+
+    Class[] types=line.types;
+    if (types.length!=2 || types[0]!=type0 || types[1]!=type1)
+      return -1;
+    return line.index;
+  }
+
+  /** return the classes of the arguments, the key of the tuple.
+   */
+  public static Class[] types(Object[] args) {
+    int length=args.length;
+    Class[] types=new Class[length];
+    for(int i=length;--i>=0;)
+      types[i]=classOf(args[i]);
+    return types;
+  }
+
+  /** insert the index of the most specific method for the
+      classes of the arguments.
+      @param types the classes, mustn't be modified after.
+   */
+  public void put(BitMask mask,Class[] types,int index) {
+    int hash=hash(mask);
+    for(int i=0;i<types.length;i++)
+      hash=hash*31+types[i].hashCode();
+
+    Line[] lines=this.lines;
+    int slot=(hash ^ (hash>>>16)) & (lines.length-1);
+    if (replace || lines[slot]==null)
+      lines[slot]=new Line(mask,types,index);
+  }
+
+  /** a tuple and its index, never modified.
+   */
+  private static final class Line {
+    Line(BitMask mask,Class[] types,int index) {
+      this.mask=mask;
+      this.types=types;
+      this.index=index;
+    }
+
+    final BitMask mask;
+    final Class[] types;
+    final int index;
+  }
+
+  private final Line[] lines;
+  private final boolean replace;
+
+  private static final int SIZE=
+    Integer.getInteger("fr.umlv.jmmf.tupleCache.size",64).intValue();
+  private static final boolean REPLACE=
+    !"keep".equals(System.getProperty("fr.umlv.jmmf.tupleCache.eviction"));
+}
@@ -50,13 +50,14 @@ final class TypeModel
         return ARRAY_OBJECT_SUPERTYPES;
       else
       {
-        // reuse the class array
-        Class[] supertypes=getSuperTypes(type);
-        int length=supertypes.length;
+        // don't reuse the class array, it may be one
+        // of the constant arrays
+        Class[] componentSupertypes=getSuperTypes(type);
+        int length=componentSupertypes.length;
         
-        // use arraycopy
+        Class[] supertypes=new Class[length];
         for(int i=0;i<length;i++)
-          supertypes[i]=Array.newInstance(supertypes[i],0).getClass();
+          supertypes[i]=Array.newInstance(componentSupertypes[i],0).getClass();
           
         return supertypes;
       }
@@ -31,38 +31,71 @@ final class TypeSupport
 {
   /** return the class entry of a class.
       if the class entry doen't exist, it is create first.
+      the type support is shared by all multi-methods
+      of a factory whose declaring classes are never unloaded
+      before it, or by the ones of a single declaring class,
+      see MultiFactory#create, an existing entry is found without lock,
+      a new one is created while holding the lock of the
+      type support.
    */
   public ClassEntry getClassEntry(Class clazz) {
-    Object o=classMap.get(clazz);
-    if (o==null) {
-      BitMask mask=new Bit32Mask();
+    ClassEntry entry=classMap.get(clazz);
+    if (entry!=null)
+      return entry;
 
-      Class[] types=TypeModel.getSuperTypes(clazz);
-      for(int i=types.length;--i>=0;) {
-        ClassEntry parent=getClassEntry(types[i]);
+    synchronized(this) {
+      return createClassEntry(clazz);
+    }
+  }
 
-        mask=mask.or(parent.mask);
-      }
+  /** return true if clazz is a subtype of the class of entry.
+      Unlike getClassEntry, no entry is created for clazz and its
+      supertypes, the map would keep the classes of the targets
+      forever, even the ones that can be unloaded.
+   */
+  public boolean isAssignableFrom(ClassEntry entry,Class clazz) {
+    ClassEntry classEntry=classMap.get(clazz);
+    if (classEntry!=null)
+      return entry.isAssignableFrom(classEntry);
+
+    Class[] types=TypeModel.getSuperTypes(clazz);
+    for(int i=types.length;--i>=0;)
+      if (isAssignableFrom(entry,types[i]))
+        return true;
+    return false;
+  }
 
-      int value=classMap.size();
-      mask.set(value);
+  /** same as getClassEntry but the caller holds the lock.
+   */
+  private ClassEntry createClassEntry(Class clazz) {
+    ClassEntry entry=classMap.get(clazz);
+    if (entry!=null)
+      return entry;
+
+    BitMask mask=new Bit32Mask();
+
+    Class[] types=TypeModel.getSuperTypes(clazz);
+    for(int i=types.length;--i>=0;) {
+      ClassEntry parent=createClassEntry(types[i]);
 
-      return classMap.put(clazz,value,mask);
+      mask=mask.or(parent.mask);
     }
-    else
-      return (ClassEntry)o;
+
+    int value=classMap.size();
+    mask=mask.set(value);
+
+    return classMap.put(clazz,value,mask);
   }
 
   /** represent a class and an entry in the hash map.
    */
   static final class ClassEntry {
     public ClassEntry(Class clazz,int classValue,
-      BitMask mask,ClassEntry next)
+      BitMask mask)
     {
       this.clazz=clazz;
       this.classValue=classValue;
       this.mask=mask;
-      this.next=next;
     }
 
     /** DEBUG
@@ -75,20 +108,31 @@ final class TypeSupport
       return entry.mask.get(classValue);
     }
 
-    Class clazz;
-    BitMask mask;
-    int classValue;
-    ClassEntry next;
+    final Class clazz;
+    final BitMask mask;
+    final int classValue;
   }
 
-  /**
+  /** collision list of the table.
+   */
+  private static final class Link {
+    final ClassEntry entry;
+    final Link next;
+
+    Link(ClassEntry entry,Link next) {
+      this.entry=entry;
+      this.next=next;
+    }
+  }
+
+  /** get() doesn't lock, put() publishes a copy of the table.
    */
   static final class ClassEntryMap {
     /**
      */
     public ClassEntryMap() {
       // init table
-      table=new ClassEntry[11];
+      table=new Link[11];
       threshold = (int)(11 * 0.75);
     }
 
@@ -100,62 +144,64 @@ final class TypeSupport
 
     /**
      */
-    private void rehash() {
-      ClassEntry oldMap[] = table;
+    private Link[] rehash(Link[] oldMap) {
       int oldCapacity = oldMap.length;
 
       int newCapacity = oldCapacity * 2 + 1;
-      ClassEntry newMap[] = new ClassEntry[newCapacity];
+      Link newMap[] = new Link[newCapacity];
 
       threshold = (int)(newCapacity * 0.75);
-      table = newMap;
 
       for (int i = oldCapacity ; i-- > 0 ;) {
-        for (ClassEntry old = oldMap[i] ; old != null ; ) {
-          ClassEntry e = old;
-          old = old.next;
-
-          int index = (e.clazz.hashCode() & 0x7FFFFFFF) % newCapacity;
-          e.next = newMap[index];
-          newMap[index] = e;
+        for (Link l = oldMap[i] ; l != null ; l = l.next) {
+          int index = (l.entry.clazz.hashCode() & 0x7FFFFFFF) % newCapacity;
+          newMap[index] = new Link(l.entry, newMap[index]);
         }
       }
+      return newMap;
     }
 
     /** the class mustn't be already inserted.
      */
     public ClassEntry put(Class clazz,int value,BitMask mask)
     {
+      Link[] tab=table;
       if (count >= threshold) {
         // Rehash the table if the threshold is exceeded
-        rehash();
+        tab=rehash(tab);
       }
+      else
+        tab=tab.clone();
 
-      ClassEntry[] tab=table;
       int index=(clazz.hashCode()& 0x7FFFFFFF)%tab.length;
 
       // Creates the new entry.
+      ClassEntry entry=new ClassEntry(clazz,value,mask);
+      tab[index]=new Link(entry,tab[index]);
       count++;
-      return tab[index]=new ClassEntry(clazz,value,mask,tab[index]);
+
+      // publish
+      table=tab;
+      return entry;
     }
 
     /** .
      */
     public ClassEntry get(Class clazz) {
-      ClassEntry[] tab=table;
+      Link[] tab=table;
 
       int index=(clazz.hashCode() & 0x7FFFFFFF)%tab.length;
-      for(ClassEntry e=tab[index];e!=null;e=e.next)
-        if (e.clazz==clazz)
-          return e;
+      for(Link l=tab[index];l!=null;l=l.next)
+        if (l.entry.clazz==clazz)
+          return l.entry;
 
       return null;
     }
 
     /**
-     * The hash table data.
+     * The hash table data, replaced and never modified.
      */
-    private ClassEntry[] table;
+    private volatile Link[] table;
 
     /**
      * The total number of mappings in the hash table.
@@ -0,0 +1,54 @@
+package fr.umlv.jmmf.reflect;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** a flight recorder event committed each time an implementation
+    is replaced by one with larger bit masks, because a multi-method
+    using it has too many methods.
+ */
+@Name("fr.umlv.jmmf.Upgrade")
+@Label("Multi-Method Upgrade")
+@Category("JMMF")
+@Description("Implementation of multi-methods replaced by one with larger bit masks")
+final class UpgradeEvent extends Event {
+
+  /** commit an event for the upgrade of impl by successor
+      if the event is enabled.
+   */
+  static void report(AbstractImpl impl,AbstractImpl successor) {
+    UpgradeEvent event=new UpgradeEvent();
+    if (!event.isEnabled())
+      return;
+
+    event.name=impl.getName();
+    event.parameters=impl.getArgLength();
+    event.methods=impl.getMethodMap().size();
+    event.from=impl.getClass().getSimpleName();
+    event.to=successor.getClass().getSimpleName();
+    event.upgrades=impl.multiMethodMap.upgrades;
+    event.commit();
+  }
+
+  @Label("Name")
+  String name;
+
+  @Label("Parameters")
+  int parameters;
+
+  @Label("Methods")
+  int methods;
+
+  @Label("From")
+  String from;
+
+  @Label("To")
+  String to;
+
+  @Label("Upgrades")
+  @Description("Number of upgrades of the implementation")
+  int upgrades;
+}
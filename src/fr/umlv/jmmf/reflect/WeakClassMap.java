@@ -0,0 +1,40 @@
+package fr.umlv.jmmf.reflect;
+
+/** values of classes that may be unloaded before the multi-method,
+    a class that isn't loaded by the loader of a declaring class
+    or one of its parents, like a class of a plugin.
+
+    The values are stored in the classes themselves with
+    a {@link ClassValue}, so a class and its loader can be collected
+    even if the map is still used. A map can't be enumerated,
+    it is replaced by a new one when its values are outdated.
+
+    get() doesn't lock, put() must be called by a writer holding
+    the lock of the implementation.
+ */
+final class WeakClassMap {
+  /** @return null if the class has no value.
+   */
+  public Object get(Class clazz) {
+    return ((Slot)slots.get(clazz)).value;
+  }
+
+  /** value mustn't reference the map, it would stay
+      reachable as long as the class is loaded.
+   */
+  public void put(Class clazz,Object value) {
+    ((Slot)slots.get(clazz)).value=value;
+  }
+
+  /** the value of a class, created empty by the first get().
+   */
+  private static final class Slot {
+    volatile Object value;
+  }
+
+  private final ClassValue slots=new ClassValue() {
+    protected Object computeValue(Class type) {
+      return new Slot();
+    }
+  };
+}
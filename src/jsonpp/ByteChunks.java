@@ -0,0 +1,92 @@
+package jsonpp;
+
+import jsonpp.sink.Utf8Sink;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Pulls the UTF-8 encoding of one object graph a chunk at a time, in the same way as
+ * {@link CharChunks}. A chunk holds at most chunkSize bytes.
+ */
+public final class ByteChunks {
+	private final Traversal traversal;
+	private final Pending pending;
+	private final byte[] chunk;
+	private boolean printing = true;
+
+	ByteChunks(Serializer serializer, Object o, int chunkSize) {
+		this.chunk = new byte[chunkSize];
+		this.pending = new Pending();
+		this.traversal = new Traversal(serializer, pending);
+		traversal.start(o, 0);
+	}
+
+	public boolean hasNext() {
+		fill();
+		return pending.count > 0;
+	}
+
+	/**
+	 * The next chunk. The buffer is reused, so it is only valid until the next call.
+	 */
+	public ByteBuffer next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int n = Math.min(pending.count, chunk.length);
+		System.arraycopy(pending.bytes, 0, chunk, 0, n);
+		pending.count -= n;
+		System.arraycopy(pending.bytes, n, pending.bytes, 0, pending.count);
+		return ByteBuffer.wrap(chunk, 0, n);
+	}
+
+	private void fill() {
+		if (!printing) {
+			return;
+		}
+		boolean done = true;
+		try {
+			while (pending.count < chunk.length) {
+				if (!traversal.step()) {
+					return;
+				}
+			}
+			done = false;
+		} finally {
+			if (done) {
+				printing = false;
+				traversal.finish();
+			} else {
+				pending.drain();
+			}
+		}
+	}
+
+	/**
+	 * Bytes encoded but not handed out yet. The encoding buffer is kept small since only
+	 * drained bytes count towards filling a chunk.
+	 */
+	private final class Pending extends Utf8Sink {
+		byte[] bytes = new byte[chunk.length + 256];
+		int count;
+
+		Pending() {
+			super(256);
+		}
+
+		protected void write(byte[] source, int offset, int length) {
+			if (bytes.length - count < length) {
+				byte[] grown = new byte[Math.max(bytes.length << 1, count + length)];
+				System.arraycopy(bytes, 0, grown, 0, count);
+				bytes = grown;
+			}
+			System.arraycopy(source, offset, bytes, count, length);
+			count += length;
+		}
+
+		protected void drain() {
+			super.drain();
+		}
+	}
+}
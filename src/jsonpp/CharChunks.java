@@ -0,0 +1,108 @@
+package jsonpp;
+
+import jsonpp.sink.Sink;
+
+import java.nio.CharBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Pulls the text of one object graph a chunk at a time. Each call to {@link #next()} prints
+ * just enough of the graph to fill a chunk and then suspends the traversal, so memory per
+ * document stays around one chunk and the consumer decides the pace. A chunk holds at most
+ * chunkSize chars; a single token longer than that is spread over several chunks.
+ */
+public final class CharChunks {
+	private final Traversal traversal;
+	private final Pending pending;
+	private final char[] chunk;
+	private boolean printing = true;
+
+	CharChunks(Serializer serializer, Object o, int chunkSize) {
+		this.chunk = new char[chunkSize];
+		this.pending = new Pending();
+		this.traversal = new Traversal(serializer, pending);
+		traversal.start(o, 0);
+	}
+
+	public boolean hasNext() {
+		fill();
+		return pending.count > 0;
+	}
+
+	/**
+	 * The next chunk. The buffer is reused, so it is only valid until the next call.
+	 */
+	public CharBuffer next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int n = Math.min(pending.count, chunk.length);
+		System.arraycopy(pending.chars, 0, chunk, 0, n);
+		pending.count -= n;
+		System.arraycopy(pending.chars, n, pending.chars, 0, pending.count);
+		return CharBuffer.wrap(chunk, 0, n);
+	}
+
+	private void fill() {
+		if (!printing) {
+			return;
+		}
+		boolean done = true;
+		try {
+			while (pending.count < chunk.length) {
+				if (!traversal.step()) {
+					return;
+				}
+			}
+			done = false;
+		} finally {
+			if (done) {
+				printing = false;
+				traversal.finish();
+			}
+		}
+	}
+
+	/**
+	 * Text printed but not handed out yet: a little over one chunk at most, unless a
+	 * single token is longer.
+	 */
+	private final class Pending implements Sink {
+		char[] chars = new char[chunk.length + 64];
+		int count;
+
+		public void append(char c) {
+			ensure(1);
+			chars[count++] = c;
+		}
+
+		public void append(String s) {
+			ensure(s.length());
+			s.getChars(0, s.length(), chars, count);
+			count += s.length();
+		}
+
+		public void append(String s, int start, int end) {
+			ensure(end - start);
+			s.getChars(start, end, chars, count);
+			count += end - start;
+		}
+
+		public void append(char[] source, int offset, int length) {
+			ensure(length);
+			System.arraycopy(source, offset, chars, count, length);
+			count += length;
+		}
+
+		public void flush() {
+		}
+
+		private void ensure(int length) {
+			if (chars.length - count < length) {
+				char[] grown = new char[Math.max(chars.length << 1, count + length)];
+				System.arraycopy(chars, 0, grown, 0, count);
+				chars = grown;
+			}
+		}
+	}
+}
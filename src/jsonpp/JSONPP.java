@@ -1,23 +1,18 @@
 package jsonpp;
 
 import jsonpp.encode.DefaultCodec;
-import jsonpp.encode.Null;
 import jsonpp.layout.Layout;
-import jsonpp.util.MethodBox;
-import static jsonpp.util.MethodBox.mm;
+import jsonpp.sink.WriterSink;
 
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class JSONPP {
 	private Writer writer;
-	private Layout layout;
-	private MethodBox<String> encodeKey;
-	private MethodBox<String> encodeValue;
-	private MethodBox<Iterator> iterator;
-	private MethodBox<Iterator<Map.Entry>> entries;
+	private WriterSink sink;
+	private Serializer serializer;
+	private Traversal traversal;
 
 	public JSONPP() {
 		this(new StringWriter());
@@ -28,12 +23,13 @@ public class JSONPP {
 	}
 
 	public JSONPP(Writer writer, Codec codec, Layout layout) {
+		this(writer, new Serializer(codec, layout));
+	}
+
+	public JSONPP(Writer writer, Serializer serializer) {
 		this.writer = writer;
-		this.layout = layout;
-		iterator = mm(codec, "iterator");
-		entries = mm(codec, "entries");
-		encodeKey = mm(codec, "encodeKey", "key");
-		encodeValue = mm(codec, "encodeValue", "value");
+		this.sink = new WriterSink(writer);
+		use(serializer);
 	}
 
 	public void pp(Object o) {
@@ -42,79 +38,51 @@ public class JSONPP {
 
 
 	public void pp(Object o, int depth) {
-		if (o == null) {
-			o = Null.INSTANCE;
-		}
-		Iterator<Map.Entry> entries = this.entries.call(o);
-		if (entries != null) {
-			pptree(entries, depth);
-		} else {
-			Iterator i = iterator.call(o);
-			if (i != null) {
-				ppseq(i, depth);
-			} else {
-				append(encodeValue.call(o));
-			}
-		}
+		traversal.pp(o, depth);
+	}
+
+	/**
+	 * @see Serializer#withReferences(References)
+	 */
+	public void setReferences(References references) {
+		use(serializer.withReferences(references));
+	}
+
+	/**
+	 * @see Serializer#withMaxDepth(int)
+	 */
+	public void setMaxDepth(int maxDepth) {
+		use(serializer.withMaxDepth(maxDepth));
 	}
 
-	private void ppseq(Iterator i, int depth) {
-		append("[");
-		if (i.hasNext()) {
-			carriageReturn(depth + 1);
-		}
-		while (i.hasNext()) {
-			pp(i.next(), depth + 1);
-			if (i.hasNext()) {
-				append(",");
-				carriageReturn(depth + 1);
-			} else {
-				carriageReturn(depth);
-			}
-		}
-		append("]");
+	/**
+	 * @see Serializer#withMaxVisits(int)
+	 */
+	public void setMaxVisits(int maxVisits) {
+		use(serializer.withMaxVisits(maxVisits));
 	}
 
-	private void pptree(Iterator<Map.Entry> entries, int depth) {
-		append("{");
-		if (entries.hasNext()) {
-			carriageReturn(depth + 1);
-		}
-		while (entries.hasNext()) {
-			Map.Entry entry = entries.next();
-			append(encodeKey.call(entry.getKey()) + ": ");
-			pp(entry.getValue(), depth + 1);
-			if (entries.hasNext()) {
-				append(",");
-				carriageReturn(depth + 1);
-			} else {
-				carriageReturn(depth);
-			}
-		}
-		append("}");
+	/**
+	 * @see Serializer#withParallel(ForkJoinPool, int)
+	 */
+	public void setParallel(ForkJoinPool pool, int threshold) {
+		use(serializer.withParallel(pool, threshold));
 	}
 
-	private void carriageReturn(int depth) {
-		append(this.layout.newline(), indent(depth));
+	/**
+	 * @see Serializer#withKeyCache(KeyCache)
+	 */
+	public void setKeyCache(KeyCache keyCache) {
+		use(serializer.withKeyCache(keyCache));
 	}
 
-	private String indent(int depth) {
-		String seq = this.layout.indentWith ();
-		StringBuffer buffer = new StringBuffer();
-		for (int i = 0; i < depth; i++) {
-			buffer.append(seq);
-		}
-		return buffer.toString();
+	private void use(Serializer serializer) {
+		this.serializer = serializer;
+		this.traversal = new Traversal(serializer, sink);
 	}
 
-	private void append(String... strings) {
-		try {
-			for (String s: strings) {
-				writer.append(s);
-			}
-		} catch (Exception e) {
-			throw new PPException(e);
-		}
+	public Serializer getSerializer() {
+		return serializer;
 	}
 
 	public Writer getWriter() {
@@ -0,0 +1,179 @@
+package jsonpp;
+
+import jsonpp.sink.Sink;
+import jsonpp.sink.Utf8Sink;
+import jsonpp.util.MethodBox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A bounded cache of encoded map keys, so that the field names and enum constants seen over
+ * and over are dispatched and encoded once and then copied to the sink as ready-made chars,
+ * or UTF-8 bytes for a {@link Utf8Sink}. Only strings and enum constants are cached: their
+ * encoding cannot change while they are equal. Other keys are encoded on every use.
+ * <p>
+ * The cache is split into segments, each a least recently used map guarded by its own lock,
+ * and may be shared by serializers and threads. A cache is bound to the class of the codec
+ * of the first serializer using it, and serializers with a codec of another class, which may
+ * encode keys another way, are refused.
+ */
+public final class KeyCache {
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final int maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicReference<Class> codecClass = new AtomicReference<Class>();
+
+	public KeyCache(int maxSize) {
+		if (maxSize < SEGMENTS) {
+			throw new IllegalArgumentException("maxSize must be at least " + SEGMENTS);
+		}
+		this.maxSize = maxSize;
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(maxSize / SEGMENTS + (i < maxSize % SEGMENTS ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Bind this cache to <code>codec</code>'s class unless it is already bound to another one.
+	 *
+	 * @throws IllegalArgumentException if the cache holds keys encoded by a codec of another class
+	 */
+	void bind(Codec codec) {
+		Class type = codec.getClass();
+		if (!codecClass.compareAndSet(null, type) && codecClass.get() != type) {
+			throw new IllegalArgumentException("key cache already used by a codec of " + codecClass.get());
+		}
+	}
+
+	/**
+	 * The class of the codec whose keys are cached, or null while the cache is not used.
+	 */
+	public Class getCodecClass() {
+		return codecClass.get();
+	}
+
+	/**
+	 * Write <code>key</code> as encoded by <code>encodeKey</code>, from the cache if it is there.
+	 */
+	void write(Object key, MethodBox<String> encodeKey, Sink sink) {
+		if (!cacheable(key)) {
+			sink.append(encodeKey.call1(key));
+			return;
+		}
+		Segment segment = segments[spread(key.hashCode()) & (SEGMENTS - 1)];
+		Encoded encoded;
+		synchronized (segment) {
+			encoded = segment.get(key);
+		}
+		if (encoded == null) {
+			misses.incrementAndGet();
+			encoded = new Encoded(encodeKey.call1(key));
+			synchronized (segment) {
+				segment.put(key, encoded);
+			}
+		} else {
+			hits.incrementAndGet();
+		}
+		if (sink instanceof Utf8Sink) {
+			byte[] utf8 = encoded.utf8();
+			((Utf8Sink) sink).appendUtf8(utf8, 0, utf8.length);
+		} else {
+			sink.append(encoded.chars, 0, encoded.chars.length);
+		}
+	}
+
+	private static boolean cacheable(Object key) {
+		return key instanceof String || key instanceof Enum;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16) ^ (hash >>> 8);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "KeyCache[size=" + size() + "/" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + "]";
+	}
+
+	private final class Segment extends LinkedHashMap<Object, Encoded> {
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Encoded> eldest) {
+			if (size() > capacity) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * An encoded key. The UTF-8 form is only made for keys written to a {@link Utf8Sink};
+	 * threads racing to make it compute equal bytes.
+	 */
+	private static final class Encoded {
+		final char[] chars;
+		private volatile byte[] utf8;
+
+		Encoded(String text) {
+			this.chars = text.toCharArray();
+		}
+
+		byte[] utf8() {
+			byte[] bytes = utf8;
+			if (bytes == null) {
+				bytes = utf8 = new String(chars).getBytes(StandardCharsets.UTF_8);
+			}
+			return bytes;
+		}
+	}
+}
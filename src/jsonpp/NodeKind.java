@@ -0,0 +1,54 @@
+package jsonpp;
+
+import jsonpp.encode.Opener;
+import jsonpp.encode.ValueWriter;
+import jsonpp.sink.Sink;
+
+import java.util.Iterator;
+
+/**
+ * What a serializer found out about one runtime class: how to open its instances as a map
+ * or a sequence, and how to write them when they are neither. A null opener means the codec
+ * is known to never open such nodes that way, so the traversal needs one class lookup per
+ * node instead of up to three dispatches.
+ */
+final class NodeKind {
+	/**
+	 * Marks an opener calling the codec of the serializer; kinds are shared by the serializers
+	 * of a codec class, so the traversal makes the call.
+	 */
+	static final Opener CODEC_OPENER = new Opener() {
+		public Iterator open(Object node) {
+			throw new AssertionError("called by the traversal");
+		}
+	};
+
+	/**
+	 * Marks the opener of beans: dispatch lands on BeanCodec.entries(Object), which the
+	 * traversal performs through the plans of the codec of its serializer, without dispatch.
+	 */
+	static final Opener BEAN_OPENER = new Opener() {
+		public Iterator open(Object node) {
+			throw new AssertionError("called by the traversal");
+		}
+	};
+
+	/**
+	 * Marks a writer calling the codec of the serializer, like {@link #CODEC_OPENER}.
+	 */
+	static final ValueWriter CODEC_WRITER = new ValueWriter() {
+		public void write(Object value, Sink sink) {
+			throw new AssertionError("called by the traversal");
+		}
+	};
+
+	final Opener entries;
+	final Opener iterator;
+	final ValueWriter writer;
+
+	NodeKind(Opener entries, Opener iterator, ValueWriter writer) {
+		this.entries = entries;
+		this.iterator = iterator;
+		this.writer = writer;
+	}
+}
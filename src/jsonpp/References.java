@@ -0,0 +1,25 @@
+package jsonpp;
+
+/**
+ * What the pretty printer does when it reaches a map or sequence it has already
+ * printed during the same traversal. Containers are compared by identity.
+ */
+public enum References {
+
+	/**
+	 * Follow every reference. Nothing is tracked, so a cyclic graph never terminates.
+	 */
+	FOLLOW,
+
+	/**
+	 * Throw a {@link PPException} when a container is reached again from inside itself.
+	 */
+	FAIL,
+
+	/**
+	 * Print <code>{$ref: path}</code> in place of any container printed before, where
+	 * path locates the first occurrence, e.g. <code>$.children[0].parent</code>.
+	 */
+	REFERENCE
+
+}
@@ -0,0 +1,287 @@
+package jsonpp;
+
+import jsonpp.encode.BeanCodec;
+import jsonpp.encode.DefaultCodec;
+import jsonpp.encode.Opener;
+import jsonpp.encode.ValueWriter;
+import jsonpp.layout.Layout;
+import jsonpp.sink.ByteBufferSink;
+import jsonpp.sink.OutputStreamSink;
+import jsonpp.sink.Sink;
+import jsonpp.sink.WriterSink;
+import jsonpp.util.MethodBox;
+import static jsonpp.util.MethodBox.mm;
+
+import fr.umlv.jmmf.reflect.MultiFactory;
+import fr.umlv.jmmf.reflect.MultiMethod;
+import fr.umlv.jmmf.reflect.MultipleMethodsException;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A codec and a layout compiled into multi-method dispatchers once, ready to print any
+ * number of object graphs. A serializer is immutable and may be shared between threads;
+ * each call to pp gets its own traversal state. The <code>with</code> methods return a
+ * copy with one setting changed that shares the compiled dispatchers.
+ */
+public final class Serializer {
+	/**
+	 * The kinds of the runtime classes, for each codec class. A kind is cached on classes like
+	 * String that outlive any serializer, so it never refers to a codec or a serializer: a
+	 * dispatch through the codec is only marked, and done by the traversal.
+	 */
+	private static final ClassValue<Kinds> KINDS = new ClassValue<Kinds>() {
+		protected Kinds computeValue(Class codecClass) {
+			return new Kinds(codecClass);
+		}
+	};
+
+	final Codec codec;
+	final Layout layout;
+	final String newline;
+	final String indent;
+	final MethodBox<String> encodeKey;
+	final MethodBox<String> encodeValue;
+	final MethodBox<Iterator> iterator;
+	final MethodBox<Iterator<Map.Entry>> entries;
+	final Kinds kinds;
+	final Opener beans;
+	final References references;
+	final int maxDepth;
+	final int maxVisits;
+	final ForkJoinPool pool;
+	final int parallelThreshold;
+	final KeyCache keyCache;
+
+	public Serializer() {
+		this(new DefaultCodec(), new Layout());
+	}
+
+	public Serializer(Codec codec, Layout layout) {
+		this.codec = codec;
+		this.layout = layout;
+		this.newline = layout.newline();
+		this.indent = layout.indentWith();
+		this.iterator = mm(codec, "iterator");
+		this.entries = mm(codec, "entries");
+		this.encodeKey = mm(codec, "encodeKey", "key");
+		this.encodeValue = mm(codec, "encodeValue", "value");
+		this.kinds = KINDS.get(codec.getClass());
+		this.beans = codec instanceof BeanCodec ? ((BeanCodec) codec).opener() : null;
+		this.references = References.FOLLOW;
+		this.maxDepth = Integer.MAX_VALUE;
+		this.maxVisits = Integer.MAX_VALUE;
+		this.pool = null;
+		this.parallelThreshold = 0;
+		this.keyCache = null;
+	}
+
+	private Serializer(Serializer compiled, References references, int maxDepth, int maxVisits,
+			ForkJoinPool pool, int parallelThreshold, KeyCache keyCache) {
+		this.codec = compiled.codec;
+		this.layout = compiled.layout;
+		this.newline = compiled.newline;
+		this.indent = compiled.indent;
+		this.iterator = compiled.iterator;
+		this.entries = compiled.entries;
+		this.encodeKey = compiled.encodeKey;
+		this.encodeValue = compiled.encodeValue;
+		this.kinds = compiled.kinds;
+		this.beans = compiled.beans;
+		this.references = references;
+		this.maxDepth = maxDepth;
+		this.maxVisits = maxVisits;
+		this.pool = pool;
+		this.parallelThreshold = parallelThreshold;
+		this.keyCache = keyCache;
+	}
+
+	/**
+	 * Each class is resolved once against a codec class: dispatches landing on a method
+	 * DefaultCodec can perform itself are done without the codec, catch-alls known to return
+	 * null are skipped, beans of a BeanCodec are opened through its plans, and everything
+	 * else, overrides included, calls the codec. String keys are written as is when the
+	 * codec class keeps DefaultCodec.encodeKey(String).
+	 */
+	static final class Kinds extends ClassValue<NodeKind> {
+		private final Class codecClass;
+		private final MultiMethod entries;
+		private final MultiMethod iterator;
+		private final MultiMethod encodeValue;
+		final boolean keepsStringKeys;
+
+		Kinds(Class codecClass) {
+			this.codecClass = codecClass;
+			this.entries = multiMethod(codecClass, "entries");
+			this.iterator = multiMethod(codecClass, "iterator");
+			this.encodeValue = multiMethod(codecClass, "encodeValue");
+			this.keepsStringKeys = DefaultCodec.keepsKey(resolve(multiMethod(codecClass, "encodeKey"), String.class));
+		}
+
+		protected NodeKind computeValue(Class type) {
+			ValueWriter writer = DefaultCodec.writerFor(resolve(encodeValue, type));
+			return new NodeKind(opener(entries, type), opener(iterator, type),
+					writer != null ? writer : NodeKind.CODEC_WRITER);
+		}
+
+		private Opener opener(MultiMethod method, Class type) {
+			Method resolved = resolve(method, type);
+			if (DefaultCodec.opensNothing(resolved)) {
+				return null;
+			}
+			if (BeanCodec.opensBeans(resolved)) {
+				return NodeKind.BEAN_OPENER;
+			}
+			Opener opener = DefaultCodec.openerFor(resolved);
+			return opener != null ? opener : NodeKind.CODEC_OPENER;
+		}
+
+		/**
+		 * The method the codec class dispatches to for <code>type</code>, like
+		 * {@link MethodBox#resolve(Class...)}.
+		 */
+		private Method resolve(MultiMethod method, Class type) {
+			if (method == null) {
+				return null;
+			}
+			try {
+				return method.getMethod(codecClass, new Class[] {type});
+			} catch (NoSuchMethodException e) {
+				return null;
+			} catch (MultipleMethodsException e) {
+				return null;
+			}
+		}
+
+		private static MultiMethod multiMethod(Class codecClass, String name) {
+			try {
+				return MultiFactory.getDefaultFactory().create(codecClass, name, 1);
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+	}
+
+	public void pp(Object o, Writer writer) {
+		pp(o, new WriterSink(writer));
+	}
+
+	/**
+	 * Print UTF-8 straight to <code>out</code>, with the same text as the Writer path.
+	 */
+	public void pp(Object o, OutputStream out) {
+		pp(o, new OutputStreamSink(out));
+	}
+
+	/**
+	 * Print UTF-8 into <code>target</code> from its current position.
+	 */
+	public void pp(Object o, ByteBuffer target) {
+		pp(o, new ByteBufferSink(target));
+	}
+
+	public void pp(Object o, Sink sink) {
+		new Traversal(this, sink).pp(o, 0);
+	}
+
+	/**
+	 * Print <code>o</code> lazily, a chunk of at most <code>chunkSize</code> chars per call
+	 * to {@link CharChunks#next()}. Chunks are always printed on the calling thread.
+	 *
+	 * @param chunkSize the maximum number of chars of a chunk, at least 1
+	 */
+	public CharChunks chunks(Object o, int chunkSize) {
+		checkChunkSize(chunkSize);
+		return new CharChunks(withParallel(null, 0), o, chunkSize);
+	}
+
+	/**
+	 * Print <code>o</code> lazily as UTF-8, a chunk of at most <code>chunkSize</code> bytes
+	 * per call to {@link ByteChunks#next()}.
+	 *
+	 * @param chunkSize the maximum number of bytes of a chunk, at least 1
+	 */
+	public ByteChunks utf8Chunks(Object o, int chunkSize) {
+		checkChunkSize(chunkSize);
+		return new ByteChunks(withParallel(null, 0), o, chunkSize);
+	}
+
+	private static void checkChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunk size " + chunkSize + " is below 1");
+		}
+	}
+
+	/**
+	 * Choose how maps and sequences that were already printed are handled. Defaults to
+	 * {@link References#FOLLOW}, which does no tracking at all.
+	 */
+	public Serializer withReferences(References references) {
+		return new Serializer(this, references, maxDepth, maxVisits, pool, parallelThreshold, keyCache);
+	}
+
+	/**
+	 * Fail with a {@link PPException} instead of opening a map or sequence nested deeper
+	 * than <code>maxDepth</code>.
+	 */
+	public Serializer withMaxDepth(int maxDepth) {
+		return new Serializer(this, references, maxDepth, maxVisits, pool, parallelThreshold, keyCache);
+	}
+
+	/**
+	 * Fail with a {@link PPException} once more than <code>maxVisits</code> maps and
+	 * sequences have been opened by a single call to pp.
+	 */
+	public Serializer withMaxVisits(int maxVisits) {
+		return new Serializer(this, references, maxDepth, maxVisits, pool, parallelThreshold, keyCache);
+	}
+
+	/**
+	 * Print the top level map or sequence on <code>pool</code> when it has at least
+	 * <code>threshold</code> elements. The elements are split into contiguous chunks, each
+	 * printed into its own buffer, and the buffers are written out in order, so the text is
+	 * the same as when printing sequentially. Reference tracking and visit budgets need to
+	 * see the whole graph and therefore always print sequentially.
+	 *
+	 * @param pool the pool to print on, or null to always print sequentially
+	 * @param threshold the minimum number of elements, at least 1 unless pool is null
+	 */
+	public Serializer withParallel(ForkJoinPool pool, int threshold) {
+		if (pool != null && threshold < 1) {
+			throw new IllegalArgumentException("parallel threshold " + threshold + " is below 1");
+		}
+		return new Serializer(this, references, maxDepth, maxVisits, pool, threshold, keyCache);
+	}
+
+	/**
+	 * Look map keys up in <code>keyCache</code> before encoding them, or always encode them
+	 * when it is null, the default.
+	 *
+	 * @throws IllegalArgumentException if <code>keyCache</code> already holds keys encoded by a
+	 *             codec of another class
+	 */
+	public Serializer withKeyCache(KeyCache keyCache) {
+		if (keyCache != null) {
+			keyCache.bind(codec);
+		}
+		return new Serializer(this, references, maxDepth, maxVisits, pool, parallelThreshold, keyCache);
+	}
+
+	public Codec getCodec() {
+		return codec;
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	public KeyCache getKeyCache() {
+		return keyCache;
+	}
+}
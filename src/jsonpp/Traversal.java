@@ -0,0 +1,399 @@
+package jsonpp;
+
+import jsonpp.encode.Null;
+import jsonpp.encode.Opener;
+import jsonpp.sink.Sink;
+import jsonpp.sink.StringBuilderSink;
+import jsonpp.util.MethodBox;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The state of printing one object graph with a {@link Serializer}: the sink being written
+ * to, the stack of open maps and sequences and the reference tracking for the current call.
+ * A traversal is confined to one thread; the serializer behind it is shared.
+ */
+final class Traversal {
+	private final Serializer serializer;
+	private final Sink sink;
+	private final String newline;
+	private final String indent;
+	private final MethodBox<String> encodeKey;
+	private final MethodBox<String> encodeValue;
+	private final MethodBox<Iterator> iterator;
+	private final MethodBox<Iterator<Map.Entry>> entries;
+	private final ClassValue<NodeKind> kinds;
+	private final boolean keepsStringKeys;
+	private final Opener beans;
+	private final References references;
+	private final int maxDepth;
+	private final int maxVisits;
+	private final ForkJoinPool pool;
+	private final int parallelThreshold;
+	private final KeyCache keyCache;
+	private Frame[] frames = new Frame[16];
+	private int size;
+	private IdentityHashMap<Object, String> visited;
+	private int visits;
+	private Object node;
+	private int level;
+	private boolean descending;
+
+	Traversal(Serializer serializer, Sink sink) {
+		this.serializer = serializer;
+		this.sink = sink;
+		this.newline = serializer.newline;
+		this.indent = serializer.indent;
+		this.encodeKey = serializer.encodeKey;
+		this.encodeValue = serializer.encodeValue;
+		this.iterator = serializer.iterator;
+		this.entries = serializer.entries;
+		this.kinds = serializer.kinds;
+		this.keepsStringKeys = serializer.kinds.keepsStringKeys;
+		this.beans = serializer.beans;
+		this.references = serializer.references;
+		this.maxDepth = serializer.maxDepth;
+		this.maxVisits = serializer.maxVisits;
+		this.pool = serializer.pool;
+		this.parallelThreshold = serializer.parallelThreshold;
+		this.keyCache = serializer.keyCache;
+	}
+
+	/**
+	 * Print <code>o</code> as if it were nested <code>depth</code> levels deep and flush the sink.
+	 */
+	void pp(Object o, int depth) {
+		start(o, depth);
+		try {
+			while (step()) {
+			}
+		} finally {
+			finish();
+		}
+	}
+
+	/**
+	 * Get ready to print <code>o</code>; the printing itself is done by {@link #step()}.
+	 */
+	void start(Object o, int depth) {
+		visited = references == References.FOLLOW ? null : new IdentityHashMap<Object, String>();
+		visits = 0;
+		descend(o, depth);
+	}
+
+	/**
+	 * Print the next node, or the separator or closing bracket that follows it, and return
+	 * whether there is more to print. The graph is walked without recursing: every open map
+	 * or sequence is a {@link Frame} on an explicit stack, so nesting depth is bounded by the
+	 * heap rather than by the thread stack, and printing can stop between any two steps.
+	 */
+	boolean step() {
+		if (descending) {
+			if (open(node, level)) {
+				Frame frame = frames[size - 1];
+				node = advance(frame);
+				level = frame.depth + 1;
+				return true;
+			}
+			node = null;
+			descending = false;
+			return size > 0;
+		}
+		Frame frame = frames[size - 1];
+		if (frame.iterator.hasNext()) {
+			sink.append(',');
+			carriageReturn(frame.depth + 1);
+			descend(advance(frame), frame.depth + 1);
+			return true;
+		}
+		carriageReturn(frame.depth);
+		sink.append(frame.tree ? '}' : ']');
+		pop();
+		return size > 0;
+	}
+
+	/**
+	 * Release the traversal state, whether or not printing completed, and flush the sink.
+	 */
+	void finish() {
+		while (size > 0) {
+			pop();
+		}
+		node = null;
+		descending = false;
+		visited = null;
+		sink.flush();
+	}
+
+	private void descend(Object o, int depth) {
+		node = o;
+		level = depth;
+		descending = true;
+	}
+
+	/**
+	 * Writes a scalar in full, or the opening of a map or sequence. A container with at
+	 * least one element is pushed on the stack and true is returned.
+	 */
+	private boolean open(Object o, int depth) {
+		if (o == null) {
+			o = Null.INSTANCE;
+		}
+		NodeKind kind = kinds.get(o.getClass());
+		if (kind.entries != null) {
+			Iterator entries = kind.entries == NodeKind.CODEC_OPENER ? this.entries.call1(o)
+					: kind.entries == NodeKind.BEAN_OPENER ? beans.open(o) : kind.entries.open(o);
+			if (entries != null) {
+				return open(o, entries, true, depth);
+			}
+		}
+		if (kind.iterator != null) {
+			Iterator i = kind.iterator == NodeKind.CODEC_OPENER ? iterator.call1(o) : kind.iterator.open(o);
+			if (i != null) {
+				return open(o, i, false, depth);
+			}
+		}
+		if (kind.writer == NodeKind.CODEC_WRITER) {
+			sink.append(encodeValue.call1(o));
+		} else {
+			kind.writer.write(o, sink);
+		}
+		return false;
+	}
+
+	private boolean open(Object node, Iterator iterator, boolean tree, int depth) {
+		if (depth > maxDepth) {
+			throw new PPException("maximum depth of " + maxDepth + " exceeded");
+		}
+		if (size == 0 && pool != null && visited == null && maxVisits == Integer.MAX_VALUE) {
+			List elements = new ArrayList();
+			while (iterator.hasNext()) {
+				Object element = iterator.next();
+				// an iterator may reuse one entry for all elements, see BeanCodec
+				elements.add(tree ? new AbstractMap.SimpleImmutableEntry((Map.Entry) element) : element);
+			}
+			// an empty container is never split, its chunks would print blank lines
+			if (!elements.isEmpty() && elements.size() >= parallelThreshold) {
+				openInParallel(elements, tree, depth);
+				return false;
+			}
+			iterator = elements.iterator();
+		}
+		if (++visits > maxVisits) {
+			throw new PPException("maximum of " + maxVisits + " visited containers exceeded");
+		}
+		String path = null;
+		if (visited != null) {
+			path = visited.get(node);
+			if (path != null) {
+				if (references == References.FAIL) {
+					throw new PPException("cycle detected at " + path);
+				}
+				sink.append('{');
+				sink.append(encodeKey.call1("$ref"));
+				sink.append(": ");
+				sink.append(encodeValue.call1(path));
+				sink.append('}');
+				return false;
+			}
+		}
+		sink.append(tree ? '{' : '[');
+		if (!iterator.hasNext()) {
+			sink.append(tree ? '}' : ']');
+			return false;
+		}
+		carriageReturn(depth + 1);
+		if (visited != null) {
+			path = pathTo(size > 0 ? frames[size - 1] : null);
+			visited.put(node, path);
+		}
+		push(node, iterator, tree, depth);
+		frames[size - 1].path = path;
+		return true;
+	}
+
+	private void openInParallel(List elements, boolean tree, int depth) {
+		int count = elements.size();
+		int chunks = Math.min(count, pool.getParallelism() * 4);
+		List<Chunk> tasks = new ArrayList<Chunk>(chunks);
+		// only the top level container is split, the chunks print their nested
+		// containers sequentially instead of forking and waiting again
+		Serializer sequential = serializer.withParallel(null, 0);
+		for (int i = 0; i < chunks; i++) {
+			Chunk chunk = new Chunk(sequential, elements, (int) ((long) count * i / chunks),
+				(int) ((long) count * (i + 1) / chunks), tree, depth);
+			tasks.add(chunk);
+			pool.execute(chunk);
+		}
+		try {
+			sink.append(tree ? '{' : '[');
+			carriageReturn(depth + 1);
+			for (int i = 0; i < chunks; i++) {
+				if (i > 0) {
+					sink.append(',');
+					carriageReturn(depth + 1);
+				}
+				sink.append(tasks.get(i).join());
+			}
+		} finally {
+			for (Chunk chunk : tasks) {
+				chunk.quietlyJoin();
+			}
+		}
+		carriageReturn(depth);
+		sink.append(tree ? '}' : ']');
+	}
+
+	/**
+	 * Print elements <code>from</code> to <code>to</code> of a container opened at
+	 * <code>depth</code>, separated as they would be inside it.
+	 */
+	private void printRange(List elements, int from, int to, boolean tree, int depth) {
+		try {
+			for (int i = from; i < to; i++) {
+				if (i > from) {
+					sink.append(',');
+					carriageReturn(depth + 1);
+				}
+				Object element = elements.get(i);
+				if (tree) {
+					Map.Entry entry = (Map.Entry) element;
+					writeKey(entry.getKey());
+					sink.append(": ");
+					element = entry.getValue();
+				}
+				descend(element, depth + 1);
+				while (step()) {
+				}
+			}
+		} finally {
+			finish();
+		}
+	}
+
+	/**
+	 * The path of the element the given frame is positioned on, or of the root when
+	 * there is no frame.
+	 */
+	private String pathTo(Frame parent) {
+		if (parent == null) {
+			return "$";
+		}
+		if (parent.tree) {
+			return parent.path + "." + parent.key;
+		}
+		return parent.path + "[" + parent.index + "]";
+	}
+
+	/**
+	 * Moves the frame on to its next element, writing the key if the frame is a map,
+	 * and returns the value to print.
+	 */
+	private Object advance(Frame frame) {
+		if (frame.tree) {
+			Map.Entry entry = (Map.Entry) frame.iterator.next();
+			frame.key = entry.getKey();
+			writeKey(frame.key);
+			sink.append(": ");
+			return entry.getValue();
+		}
+		frame.index++;
+		return frame.iterator.next();
+	}
+
+	private void writeKey(Object key) {
+		if (keyCache != null) {
+			keyCache.write(key, encodeKey, sink);
+		} else if (keepsStringKeys && key instanceof String) {
+			sink.append((String) key);
+		} else {
+			sink.append(encodeKey.call1(key));
+		}
+	}
+
+	private void push(Object node, Iterator iterator, boolean tree, int depth) {
+		if (size == frames.length) {
+			Frame[] grown = new Frame[size << 1];
+			System.arraycopy(frames, 0, grown, 0, size);
+			frames = grown;
+		}
+		Frame frame = frames[size];
+		if (frame == null) {
+			frame = frames[size] = new Frame();
+		}
+		frame.node = node;
+		frame.iterator = iterator;
+		frame.tree = tree;
+		frame.depth = depth;
+		frame.index = -1;
+		size++;
+	}
+
+	private void pop() {
+		Frame frame = frames[--size];
+		if (references == References.FAIL && visited != null) {
+			visited.remove(frame.node);
+		}
+		frame.node = null;
+		frame.iterator = null;
+		frame.key = null;
+		frame.path = null;
+	}
+
+	private void carriageReturn(int depth) {
+		sink.append(newline);
+		if (indent.length() > 0) {
+			for (int i = 0; i < depth; i++) {
+				sink.append(indent);
+			}
+		}
+	}
+
+	/**
+	 * A slice of a large top level container, printed sequentially into its own buffer.
+	 */
+	private static final class Chunk extends RecursiveTask<String> {
+		private final Serializer serializer;
+		private final List elements;
+		private final int from;
+		private final int to;
+		private final boolean tree;
+		private final int depth;
+
+		Chunk(Serializer serializer, List elements, int from, int to, boolean tree, int depth) {
+			this.serializer = serializer;
+			this.elements = elements;
+			this.from = from;
+			this.to = to;
+			this.tree = tree;
+			this.depth = depth;
+		}
+
+		protected String compute() {
+			StringBuilder buffer = new StringBuilder();
+			new Traversal(serializer, new StringBuilderSink(buffer)).printRange(elements, from, to, tree, depth);
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * An open map or sequence: the iterator over its elements and the depth it was opened at.
+	 * The key, index and path are only kept up to date for reference tracking.
+	 */
+	private static final class Frame {
+		Object node;
+		Iterator iterator;
+		boolean tree;
+		int depth;
+		Object key;
+		int index;
+		String path;
+	}
+}
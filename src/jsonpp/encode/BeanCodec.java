@@ -0,0 +1,307 @@
+package jsonpp.encode;
+
+import jsonpp.PPException;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * A codec printing any object that is not a JDK type, a map, a sequence or a scalar as a
+ * map of its properties: the public no-argument getX and isX methods, and the public
+ * fields that no getter shadows, sorted by name. The properties of a class are found once
+ * and kept as a {@link Plan} of accessors. An object without properties is printed like
+ * any other value.
+ * <p>
+ * By default each getter gets its own accessor class, spun at runtime by the
+ * {@link LambdaMetafactory} as a hidden class that calls the getter directly. Fields, and
+ * getters the factory cannot reach, are read through method handles, as are all properties
+ * when generation is turned off.
+ * <p>
+ * A serializer does not dispatch to entries for the nodes that land on it: it looks the
+ * plan of their class up through {@link #opener()}, so printing a bean and its scalar
+ * properties makes no multi-method call at all.
+ */
+public class BeanCodec extends DefaultCodec {
+	private static final MethodType ACCESSOR = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType FUNCTION = MethodType.methodType(Function.class);
+
+	private static final ClassValue<Plan> GENERATED_PLANS = new ClassValue<Plan>() {
+		protected Plan computeValue(Class type) {
+			return isBean(type) ? Plan.of(type, true) : null;
+		}
+	};
+
+	private static final ClassValue<Plan> REFLECTIVE_PLANS = new ClassValue<Plan>() {
+		protected Plan computeValue(Class type) {
+			return isBean(type) ? Plan.of(type, false) : null;
+		}
+	};
+
+	private final ClassValue<Plan> plans;
+	private final Opener opener = new Opener() {
+		public Iterator open(Object node) {
+			return properties(node);
+		}
+	};
+
+	public BeanCodec() {
+		this(true);
+	}
+
+	/**
+	 * @param generated whether to generate an accessor class per getter, or only use method handles
+	 */
+	public BeanCodec(boolean generated) {
+		this.plans = generated ? GENERATED_PLANS : REFLECTIVE_PLANS;
+	}
+
+	@Override
+	public Iterator<Map.Entry> entries(Object o) {
+		return properties(o);
+	}
+
+	/**
+	 * An opener doing what entries(Object) does with the plans of this codec.
+	 */
+	public Opener opener() {
+		return opener;
+	}
+
+	/**
+	 * Whether <code>method</code> is the entries(Object) declared right here, which
+	 * {@link #opener()} performs without dispatch.
+	 */
+	public static boolean opensBeans(Method method) {
+		return method != null && method.getDeclaringClass() == BeanCodec.class
+				&& method.getName().equals("entries");
+	}
+
+	private Iterator<Map.Entry> properties(Object o) {
+		Plan plan = plans.get(o.getClass());
+		return plan != null ? new Properties(plan, o) : null;
+	}
+
+	/**
+	 * The properties of <code>type</code>, or null when it is not printed as a bean.
+	 */
+	public static Plan planFor(Class type) {
+		return GENERATED_PLANS.get(type);
+	}
+
+	private static boolean isBean(Class type) {
+		if (type.isArray() || type.isPrimitive() || Enum.class.isAssignableFrom(type) || type == Null.class) {
+			return false;
+		}
+		// user-defined maps, sequences and scalars, like a subclass of ArrayList, keep
+		// printing as such rather than as their getters, isEmpty included
+		if (Map.class.isAssignableFrom(type) || Iterable.class.isAssignableFrom(type)
+				|| Number.class.isAssignableFrom(type) || CharSequence.class.isAssignableFrom(type)) {
+			return false;
+		}
+		String name = type.getName();
+		return !(name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+				|| name.startsWith("sun.") || name.startsWith("com.sun."));
+	}
+
+	/**
+	 * The names of the properties of a class and an accessor for each, both indexed alike.
+	 */
+	public static final class Plan {
+		final String[] names;
+		final Function[] accessors;
+
+		private Plan(String[] names, Function[] accessors) {
+			this.names = names;
+			this.accessors = accessors;
+		}
+
+		static Plan of(Class type, boolean generated) {
+			TreeMap<String, Function> properties = new TreeMap<String, Function>();
+			for (Field field : type.getFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					MethodHandle getter = unreflect(field);
+					if (getter != null) {
+						properties.put(field.getName(), new HandleAccessor(getter));
+					}
+				}
+			}
+			for (Method method : type.getMethods()) {
+				String property = propertyName(method);
+				if (property != null) {
+					Function accessor = generated ? generate(type, method) : null;
+					if (accessor == null) {
+						MethodHandle getter = unreflect(method);
+						accessor = getter != null ? new HandleAccessor(getter) : null;
+					}
+					if (accessor != null) {
+						properties.put(property, accessor);
+					}
+				}
+			}
+			if (properties.isEmpty()) {
+				return null;
+			}
+			return new Plan(properties.keySet().toArray(new String[properties.size()]),
+					properties.values().toArray(new Function[properties.size()]));
+		}
+
+		/**
+		 * A function calling <code>getter</code> on instances of <code>type</code>, defined
+		 * next to <code>type</code>, or null when <code>type</code> is not open to this codec.
+		 */
+		private static Function generate(Class type, Method getter) {
+			CallSite site;
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+				MethodHandle target = lookup.unreflect(getter);
+				site = LambdaMetafactory.metafactory(lookup, "apply", FUNCTION, ACCESSOR.erase(),
+						target, MethodType.methodType(Object.class, type));
+			} catch (IllegalAccessException | LambdaConversionException | SecurityException e) {
+				return null;
+			}
+			try {
+				return (Function) site.getTarget().invokeExact();
+			} catch (Throwable t) {
+				// the target of a call site without captured values only returns its one instance
+				throw new AssertionError(t);
+			}
+		}
+
+		private static String propertyName(Method method) {
+			if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0
+					|| method.getReturnType() == void.class || method.getDeclaringClass() == Object.class) {
+				return null;
+			}
+			String name = method.getName();
+			int prefix;
+			if (name.startsWith("get")) {
+				prefix = 3;
+			} else if (name.startsWith("is") && method.getReturnType() == boolean.class) {
+				prefix = 2;
+			} else {
+				return null;
+			}
+			if (name.length() == prefix || !Character.isUpperCase(name.charAt(prefix))) {
+				return null;
+			}
+			return Character.toLowerCase(name.charAt(prefix)) + name.substring(prefix + 1);
+		}
+
+		/**
+		 * A handle of type (Object)Object, or null when the member is not accessible, as
+		 * happens for a public method of a class that is not itself public in another module.
+		 */
+		private static MethodHandle unreflect(Object member) {
+			try {
+				return unreflect(member, MethodHandles.publicLookup());
+			} catch (IllegalAccessException e) {
+				try {
+					((AccessibleObject) member).setAccessible(true);
+					return unreflect(member, MethodHandles.lookup());
+				} catch (RuntimeException | IllegalAccessException denied) {
+					return null;
+				}
+			}
+		}
+
+		private static MethodHandle unreflect(Object member, MethodHandles.Lookup lookup)
+				throws IllegalAccessException {
+			MethodHandle handle = member instanceof Field ? lookup.unreflectGetter((Field) member)
+					: lookup.unreflect((Method) member);
+			return handle.asType(ACCESSOR);
+		}
+
+		public int size() {
+			return names.length;
+		}
+
+		public String name(int index) {
+			return names[index];
+		}
+
+		public Object get(int index, Object bean) {
+			try {
+				return accessors[index].apply(bean);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				// generated accessors let the checked exceptions of getters through
+				throw new PPException(t);
+			}
+		}
+	}
+
+	private static final class HandleAccessor implements Function {
+		private final MethodHandle getter;
+
+		HandleAccessor(MethodHandle getter) {
+			this.getter = getter;
+		}
+
+		public Object apply(Object bean) {
+			try {
+				return getter.invokeExact(bean);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new PPException(t);
+			}
+		}
+	}
+
+	/**
+	 * The properties of one bean. The iterator is its own entry: each call to next moves
+	 * it on to the next property, so an entry is only valid until then.
+	 */
+	private static final class Properties implements Iterator<Map.Entry>, Map.Entry {
+		private final Plan plan;
+		private final Object bean;
+		private int index = -1;
+
+		Properties(Plan plan, Object bean) {
+			this.plan = plan;
+			this.bean = bean;
+		}
+
+		public boolean hasNext() {
+			return index + 1 < plan.names.length;
+		}
+
+		public Map.Entry next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			index++;
+			return this;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public Object getKey() {
+			return plan.names[index];
+		}
+
+		public Object getValue() {
+			return plan.get(index, bean);
+		}
+
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
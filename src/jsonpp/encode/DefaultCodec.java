@@ -1,7 +1,9 @@
 package jsonpp.encode;
 
 import jsonpp.Codec;
+import jsonpp.sink.Sink;
 
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
@@ -57,7 +59,114 @@ public class DefaultCodec implements Codec {
 
 
 	private String quote(Object value) {
-		return String.format("\"%s\"", value.toString());
+		return StringEncoder.quote(value.toString());
 	}
 
+	/**
+	 * A writer doing what <code>method</code> does, when it is one of the encodeValue
+	 * methods declared right here, otherwise null. Since the method handed in is the one
+	 * dispatch picked, a subclass overriding an encodeValue method keeps getting it called.
+	 */
+	public static ValueWriter writerFor(Method method) {
+		if (method == null || method.getDeclaringClass() != DefaultCodec.class
+				|| !method.getName().equals("encodeValue")) {
+			return null;
+		}
+		Class type = method.getParameterTypes()[0];
+		if (type == Object.class) {
+			return QUOTE;
+		}
+		if (type == Number.class) {
+			return NUMBER;
+		}
+		if (type == Boolean.class) {
+			return BOOLEAN;
+		}
+		if (type == Null.class) {
+			return NULL;
+		}
+		return null;
+	}
+
+	/**
+	 * Whether <code>method</code> is the encodeKey(String) declared right here, which
+	 * returns the key as is.
+	 */
+	public static boolean keepsKey(Method method) {
+		return method != null && method.getDeclaringClass() == DefaultCodec.class
+				&& method.getName().equals("encodeKey") && method.getParameterTypes()[0] == String.class;
+	}
+
+	/**
+	 * Whether <code>method</code> is one of the entries(Object) and iterator(Object)
+	 * catch-alls declared right here, which always return null.
+	 */
+	public static boolean opensNothing(Method method) {
+		return method != null && method.getDeclaringClass() == DefaultCodec.class
+				&& method.getParameterTypes()[0] == Object.class;
+	}
+
+	/**
+	 * An opener doing what <code>method</code> does, when it is one of the entries or
+	 * iterator methods declared right here for maps, arrays and collections, otherwise null.
+	 */
+	public static Opener openerFor(Method method) {
+		if (method == null || method.getDeclaringClass() != DefaultCodec.class) {
+			return null;
+		}
+		Class type = method.getParameterTypes()[0];
+		if (type == Map.class) {
+			return MAP_ENTRIES;
+		}
+		if (type == Object[].class) {
+			return ARRAY_ELEMENTS;
+		}
+		if (type == Collection.class) {
+			return COLLECTION_ELEMENTS;
+		}
+		return null;
+	}
+
+	private static final ValueWriter QUOTE = new ValueWriter() {
+		public void write(Object value, Sink sink) {
+			StringEncoder.quote(value.toString(), sink);
+		}
+	};
+
+	private static final ValueWriter NUMBER = new ValueWriter() {
+		public void write(Object value, Sink sink) {
+			NumberEncoder.write((Number) value, sink);
+		}
+	};
+
+	private static final ValueWriter BOOLEAN = new ValueWriter() {
+		public void write(Object value, Sink sink) {
+			sink.append((Boolean) value ? "true" : "false");
+		}
+	};
+
+	private static final ValueWriter NULL = new ValueWriter() {
+		public void write(Object value, Sink sink) {
+			sink.append(((Null) value).js());
+		}
+	};
+
+	private static final Opener MAP_ENTRIES = new Opener() {
+		public Iterator open(Object node) {
+			return ((Map) node).entrySet().iterator();
+		}
+	};
+
+	private static final Opener ARRAY_ELEMENTS = new Opener() {
+		public Iterator open(Object node) {
+			return Arrays.asList((Object[]) node).iterator();
+		}
+	};
+
+	private static final Opener COLLECTION_ELEMENTS = new Opener() {
+		public Iterator open(Object node) {
+			return ((Collection) node).iterator();
+		}
+	};
+
 }
@@ -0,0 +1,85 @@
+package jsonpp.encode;
+
+import jsonpp.sink.Sink;
+
+/**
+ * Writes numbers digit by digit into a sink, with the same text as their toString.
+ * Integral values take a fast path without any allocation. So do doubles and floats that
+ * hold a whole number small enough for toString to print it as digits followed by ".0";
+ * other doubles and floats still go through toString, which is the only way to match its
+ * text exactly.
+ */
+public final class NumberEncoder {
+	private static final long[] POWERS = new long[19];
+
+	static {
+		long power = 1;
+		for (int i = 0; i < POWERS.length; i++) {
+			POWERS[i] = power;
+			power *= 10;
+		}
+	}
+
+	/**
+	 * toString switches to scientific notation from 10^7 on.
+	 */
+	private static final double PLAIN_LIMIT = 1e7;
+
+	private NumberEncoder() {
+	}
+
+	public static void write(Number number, Sink sink) {
+		Class type = number.getClass();
+		if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+			write(number.longValue(), sink);
+		} else if (type == Double.class) {
+			write(number.doubleValue(), sink);
+		} else if (type == Float.class) {
+			write(number.floatValue(), sink);
+		} else {
+			sink.append(number.toString());
+		}
+	}
+
+	public static void write(long value, Sink sink) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				sink.append("-9223372036854775808");
+				return;
+			}
+			sink.append('-');
+			value = -value;
+		}
+		int digits = 1;
+		while (digits < POWERS.length && value >= POWERS[digits]) {
+			digits++;
+		}
+		for (int i = digits - 1; i > 0; i--) {
+			long power = POWERS[i];
+			int digit = (int) (value / power);
+			sink.append((char) ('0' + digit));
+			value -= digit * power;
+		}
+		sink.append((char) ('0' + value));
+	}
+
+	public static void write(double value, Sink sink) {
+		if (value > -PLAIN_LIMIT && value < PLAIN_LIMIT && value == (long) value
+				&& (value != 0 || 1 / value > 0)) {
+			write((long) value, sink);
+			sink.append(".0");
+		} else {
+			sink.append(Double.toString(value));
+		}
+	}
+
+	public static void write(float value, Sink sink) {
+		if (value > -PLAIN_LIMIT && value < PLAIN_LIMIT && value == (long) value
+				&& (value != 0 || 1 / value > 0)) {
+			write((long) value, sink);
+			sink.append(".0");
+		} else {
+			sink.append(Float.toString(value));
+		}
+	}
+}
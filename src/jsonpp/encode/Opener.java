@@ -0,0 +1,13 @@
+package jsonpp.encode;
+
+import java.util.Iterator;
+
+/**
+ * Opens a node as a map or a sequence, doing the same job as an entries or iterator method
+ * of a codec without going through dispatch. Returns null when the node is not one.
+ */
+public interface Opener {
+
+	public Iterator open(Object node);
+
+}
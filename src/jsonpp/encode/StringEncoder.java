@@ -0,0 +1,177 @@
+package jsonpp.encode;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import jsonpp.sink.Sink;
+
+/**
+ * Quotes strings for JSON. A lookup table says which ASCII chars need an escape, and the
+ * runs of chars in between are copied in bulk. Besides quote, backslash and the control
+ * characters, U+2028 and U+2029 are escaped so that the output is valid javascript too.
+ * Long strings are first checked eight chars at a time, see {@link #skipPlainChunks}.
+ */
+public final class StringEncoder {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * For each ASCII char, 0 if it is copied as is, the char that follows the backslash of
+	 * its short escape, or 'u' for a \\u00XX escape.
+	 */
+	private static final char[] ESCAPES = new char[128];
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = 'u';
+		}
+		ESCAPES['"'] = '"';
+		ESCAPES['\\'] = '\\';
+		ESCAPES['\b'] = 'b';
+		ESCAPES['\f'] = 'f';
+		ESCAPES['\n'] = 'n';
+		ESCAPES['\r'] = 'r';
+		ESCAPES['\t'] = 't';
+	}
+
+	/**
+	 * Below this many chars left, a string is checked char by char.
+	 */
+	private static final int BLOCK = 32;
+
+	/**
+	 * How many chars are copied at once to check them eight at a time.
+	 */
+	private static final int CHUNK = 512;
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long SPACES = ' ' * ONES;
+	private static final long QUOTES = '"' * ONES;
+	private static final long BACKSLASHES = '\\' * ONES;
+
+	private StringEncoder() {
+	}
+
+	public static String quote(String s) {
+		int separator = nextSeparator(s, 0);
+		int escape = firstEscape(s, 0, separator);
+		if (escape < 0) {
+			return "\"" + s + "\"";
+		}
+		int length = s.length();
+		StringBuilder builder = new StringBuilder(length + 16);
+		builder.append('"');
+		int start = 0;
+		for (int i = escape; i >= 0; i = firstEscape(s, start, separator)) {
+			builder.append(s, start, i);
+			char c = s.charAt(i);
+			char escaped = c < 128 ? ESCAPES[c] : 'u';
+			builder.append('\\').append(escaped);
+			if (escaped == 'u') {
+				builder.append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+			}
+			start = i + 1;
+			if (i == separator) {
+				separator = nextSeparator(s, start);
+			}
+		}
+		builder.append(s, start, length);
+		builder.append('"');
+		return builder.toString();
+	}
+
+	public static void quote(String s, Sink sink) {
+		sink.append('"');
+		int length = s.length();
+		int start = 0;
+		int separator = nextSeparator(s, 0);
+		for (int i = firstEscape(s, 0, separator); i >= 0; i = firstEscape(s, start, separator)) {
+			if (i > start) {
+				sink.append(s, start, i);
+			}
+			char c = s.charAt(i);
+			char escaped = c < 128 ? ESCAPES[c] : 'u';
+			sink.append('\\');
+			sink.append(escaped);
+			if (escaped == 'u') {
+				sink.append(HEX[c >> 12]);
+				sink.append(HEX[(c >> 8) & 0xF]);
+				sink.append(HEX[(c >> 4) & 0xF]);
+				sink.append(HEX[c & 0xF]);
+			}
+			start = i + 1;
+			if (i == separator) {
+				separator = nextSeparator(s, start);
+			}
+		}
+		if (start == 0) {
+			sink.append(s);
+		} else if (start < length) {
+			sink.append(s, start, length);
+		}
+		sink.append('"');
+	}
+
+	/**
+	 * Index of the first char at or after <code>from</code> that needs escaping, or -1.
+	 * <code>separator</code> is the index of the next U+2028 or U+2029, see {@link #nextSeparator}.
+	 */
+	private static int firstEscape(String s, int from, int separator) {
+		char[] escapes = ESCAPES;
+		int start = separator - from < BLOCK ? from : skipPlainChunks(s, from, separator);
+		for (int i = start, length = s.length(); i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 128 ? escapes[c] != 0 : (c == '\u2028' || c == '\u2029')) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Index of the first U+2028 or U+2029 at or after <code>from</code>, or the length of
+	 * <code>s</code>. For a latin-1 string, indexOf answers without looking at the chars.
+	 * Short strings are not looked at either, <code>from</code> is returned.
+	 */
+	private static int nextSeparator(String s, int from) {
+		int length = s.length();
+		if (length - from < BLOCK) {
+			return from;
+		}
+		int line = s.indexOf('\u2028', from);
+		int paragraph = s.indexOf('\u2029', from);
+		return Math.min(line < 0 ? length : line, paragraph < 0 ? length : paragraph);
+	}
+
+	/**
+	 * Skips the chunks of chars between <code>from</code> and <code>to</code> that need no
+	 * escape, and returns the index where the char by char scan has to go on. A chunk is
+	 * copied to a byte array that keeps the low byte of each char, which is a plain array copy
+	 * for a latin-1 string, and read eight bytes at a time. A chunk is flagged when a byte is
+	 * a control char, a quote, a backslash or is above 0x7F, so that any char above U+007F
+	 * stops the skipping; there is no U+2028 nor U+2029 before <code>to</code>.
+	 */
+	@SuppressWarnings("deprecation")
+	private static int skipPlainChunks(String s, int from, int to) {
+		byte[] chunk = new byte[Math.min(to - from, CHUNK)];
+		int offset = from;
+		while (to - offset >= 8) {
+			int count = Math.min(to - offset, chunk.length) & ~7;
+			s.getBytes(offset, offset + count, chunk, 0);
+			long flags = 0;
+			for (int i = 0; i < count; i += 8) {
+				long word = (long) LONGS.get(chunk, i);
+				// the high bit of a byte is set by a borrow below 0x20 or from a zero after the xor
+				flags |= (word - SPACES) | ((word ^ QUOTES) - ONES) | ((word ^ BACKSLASHES) - ONES) | word;
+			}
+			if ((flags & HIGHS) != 0) {
+				return offset;
+			}
+			offset += count;
+		}
+		return offset;
+	}
+}
@@ -0,0 +1,13 @@
+package jsonpp.encode;
+
+import jsonpp.sink.Sink;
+
+/**
+ * Prints a scalar straight to a sink, doing the same job as an encodeValue method of a
+ * codec without building the intermediate String.
+ */
+public interface ValueWriter {
+
+	public void write(Object value, Sink sink);
+
+}
@@ -0,0 +1,33 @@
+package jsonpp.sink;
+
+import jsonpp.PPException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes UTF-8 into a {@link ByteBuffer}, advancing its position. Use
+ * {@link ByteBuffer#wrap(byte[])} to print into a plain byte array.
+ */
+public class ByteBufferSink extends Utf8Sink {
+	private final ByteBuffer target;
+
+	public ByteBufferSink(ByteBuffer target) {
+		this(target, DEFAULT_CAPACITY);
+	}
+
+	public ByteBufferSink(ByteBuffer target, int capacity) {
+		super(capacity);
+		this.target = target;
+	}
+
+	protected void write(byte[] bytes, int offset, int length) {
+		if (target.remaining() < length) {
+			throw new PPException("byte buffer full: " + length + " bytes to write, " + target.remaining() + " remaining");
+		}
+		target.put(bytes, offset, length);
+	}
+
+	public ByteBuffer getByteBuffer() {
+		return target;
+	}
+}
@@ -0,0 +1,99 @@
+package jsonpp.sink;
+
+import jsonpp.PPException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes UTF-8 to a file through a {@link FileChannel}, for dumps too large to go through a
+ * Writer comfortably. Bytes are gathered in one large reusable direct buffer that is written
+ * out with positional writes when full. {@link #close()} truncates the file to the number of
+ * bytes actually printed, so a longer existing file is cut back, and closes the channel.
+ */
+public class FileChannelSink extends Utf8Sink implements Closeable {
+	public static final int DEFAULT_BUFFER_SIZE = 16 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private long position;
+
+	/**
+	 * @param channel  a channel open for writing; printing starts at its position
+	 * @param bufferSize  size of the direct buffer
+	 */
+	public FileChannelSink(FileChannel channel, int bufferSize) {
+		super(DEFAULT_CAPACITY);
+		this.channel = channel;
+		try {
+			this.position = channel.position();
+		} catch (IOException e) {
+			throw new PPException(e);
+		}
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Create or replace the file at <code>path</code>.
+	 */
+	public static FileChannelSink open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		return new FileChannelSink(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	protected void write(byte[] bytes, int offset, int length) {
+		try {
+			while (length > 0) {
+				if (!buffer.hasRemaining()) {
+					drainBuffer();
+				}
+				int n = Math.min(length, buffer.remaining());
+				buffer.put(bytes, offset, n);
+				offset += n;
+				length -= n;
+			}
+		} catch (IOException e) {
+			throw new PPException(e);
+		}
+	}
+
+	/**
+	 * Besides emptying the encoding buffer, write out the direct buffer.
+	 */
+	public void flush() {
+		super.flush();
+		try {
+			drainBuffer();
+		} catch (IOException e) {
+			throw new PPException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			flush();
+			channel.truncate(position);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * File offset just past the last byte handed to the file so far.
+	 */
+	public long getPosition() {
+		return position + buffer.position();
+	}
+
+	private void drainBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,34 @@
+package jsonpp.sink;
+
+import jsonpp.PPException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes UTF-8 to an {@link OutputStream}, one buffer at a time.
+ */
+public class OutputStreamSink extends Utf8Sink {
+	private final OutputStream out;
+
+	public OutputStreamSink(OutputStream out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	public OutputStreamSink(OutputStream out, int capacity) {
+		super(capacity);
+		this.out = out;
+	}
+
+	protected void write(byte[] bytes, int offset, int length) {
+		try {
+			out.write(bytes, offset, length);
+		} catch (IOException e) {
+			throw new PPException(e);
+		}
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+}
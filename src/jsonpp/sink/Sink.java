@@ -0,0 +1,25 @@
+package jsonpp.sink;
+
+/**
+ * Destination for the characters produced by a pretty printer. Implementations buffer
+ * what they are given and hand it on to their target in bulk.
+ */
+public interface Sink {
+
+	public void append(char c);
+
+	public void append(String s);
+
+	/**
+	 * Append chars <code>start</code> (inclusive) to <code>end</code> (exclusive) of <code>s</code>.
+	 */
+	public void append(String s, int start, int end);
+
+	public void append(char[] chars, int offset, int length);
+
+	/**
+	 * Push everything buffered so far to the underlying target.
+	 */
+	public void flush();
+
+}
@@ -0,0 +1,35 @@
+package jsonpp.sink;
+
+/**
+ * Appends straight to a {@link StringBuilder}, which already is a growable buffer.
+ */
+public class StringBuilderSink implements Sink {
+	private final StringBuilder builder;
+
+	public StringBuilderSink(StringBuilder builder) {
+		this.builder = builder;
+	}
+
+	public void append(char c) {
+		builder.append(c);
+	}
+
+	public void append(String s) {
+		builder.append(s);
+	}
+
+	public void append(String s, int start, int end) {
+		builder.append(s, start, end);
+	}
+
+	public void append(char[] chars, int offset, int length) {
+		builder.append(chars, offset, length);
+	}
+
+	public void flush() {
+	}
+
+	public StringBuilder getBuilder() {
+		return builder;
+	}
+}
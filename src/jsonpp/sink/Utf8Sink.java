@@ -0,0 +1,174 @@
+package jsonpp.sink;
+
+/**
+ * Encodes characters as UTF-8 straight into a reusable byte buffer, without going through
+ * a {@link java.nio.charset.CharsetEncoder}. Runs of ASCII, which make up most JSON, are
+ * copied one byte per char. Unpaired surrogates are written as '?', as the standard UTF-8
+ * encoder does. Subclasses decide where full buffers go.
+ */
+public abstract class Utf8Sink implements Sink {
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private final byte[] buffer;
+	private int count;
+	private char highSurrogate;
+
+	protected Utf8Sink(int capacity) {
+		if (capacity < 4) {
+			throw new IllegalArgumentException("capacity must hold at least one code point");
+		}
+		this.buffer = new byte[capacity];
+	}
+
+	public void append(char c) {
+		if (c < 0x80 && highSurrogate == 0) {
+			if (count == buffer.length) {
+				drain();
+			}
+			buffer[count++] = (byte) c;
+		} else {
+			encode(c);
+		}
+	}
+
+	public void append(String s) {
+		append(s, 0, s.length());
+	}
+
+	public void append(String s, int start, int end) {
+		int i = start;
+		while (i < end) {
+			if (count == buffer.length) {
+				drain();
+			}
+			int limit = Math.min(end, i + buffer.length - count);
+			if (highSurrogate == 0) {
+				byte[] bytes = buffer;
+				int n = count;
+				for (char c; i < limit && (c = s.charAt(i)) < 0x80; i++) {
+					bytes[n++] = (byte) c;
+				}
+				count = n;
+			}
+			if (i < limit) {
+				encode(s.charAt(i++));
+			}
+		}
+	}
+
+	public void append(char[] chars, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		while (i < end) {
+			if (count == buffer.length) {
+				drain();
+			}
+			int limit = Math.min(end, i + buffer.length - count);
+			if (highSurrogate == 0) {
+				byte[] bytes = buffer;
+				int n = count;
+				for (char c; i < limit && (c = chars[i]) < 0x80; i++) {
+					bytes[n++] = (byte) c;
+				}
+				count = n;
+			}
+			if (i < limit) {
+				encode(chars[i++]);
+			}
+		}
+	}
+
+	/**
+	 * Append bytes that already are well-formed UTF-8, such as a cached encoding.
+	 */
+	public void appendUtf8(byte[] bytes, int offset, int length) {
+		if (highSurrogate != 0) {
+			highSurrogate = 0;
+			put('?');
+		}
+		int end = offset + length;
+		while (offset < end) {
+			if (count == buffer.length) {
+				drain();
+			}
+			int n = Math.min(end - offset, buffer.length - count);
+			System.arraycopy(bytes, offset, buffer, count, n);
+			count += n;
+			offset += n;
+		}
+	}
+
+	/**
+	 * Writes out the buffer. A high surrogate still waiting for its low half is written
+	 * as '?' first, since nothing can follow it any more.
+	 */
+	public void flush() {
+		if (highSurrogate != 0) {
+			highSurrogate = 0;
+			put('?');
+		}
+		drain();
+	}
+
+	/**
+	 * Receive a full or flushed buffer. The bytes are only valid for the duration of the call.
+	 */
+	protected abstract void write(byte[] bytes, int offset, int length);
+
+	/**
+	 * Hand the encoded bytes to {@link #write(byte[], int, int)} without finishing a
+	 * pending surrogate pair, as {@link #flush()} does.
+	 */
+	protected void drain() {
+		if (count > 0) {
+			write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	private void encode(char c) {
+		if (highSurrogate != 0) {
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				if (buffer.length - count < 4) {
+					drain();
+				}
+				buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+				return;
+			}
+			put('?');
+		}
+		if (c < 0x80) {
+			put(c);
+		} else if (c < 0x800) {
+			if (buffer.length - count < 2) {
+				drain();
+			}
+			buffer[count++] = (byte) (0xC0 | (c >> 6));
+			buffer[count++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			put('?');
+		} else {
+			if (buffer.length - count < 3) {
+				drain();
+			}
+			buffer[count++] = (byte) (0xE0 | (c >> 12));
+			buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	private void put(char ascii) {
+		if (count == buffer.length) {
+			drain();
+		}
+		buffer[count++] = (byte) ascii;
+	}
+}
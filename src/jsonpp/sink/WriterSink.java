@@ -0,0 +1,94 @@
+package jsonpp.sink;
+
+import jsonpp.PPException;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collects characters in a reusable buffer and writes them to a {@link Writer}
+ * whenever the buffer fills up or the sink is flushed.
+ */
+public class WriterSink implements Sink {
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private final Writer writer;
+	private final char[] buffer;
+	private int count;
+
+	public WriterSink(Writer writer) {
+		this(writer, DEFAULT_CAPACITY);
+	}
+
+	public WriterSink(Writer writer, int capacity) {
+		this.writer = writer;
+		this.buffer = new char[capacity];
+	}
+
+	public void append(char c) {
+		if (count == buffer.length) {
+			drain();
+		}
+		buffer[count++] = c;
+	}
+
+	public void append(String s) {
+		append(s, 0, s.length());
+	}
+
+	public void append(String s, int start, int end) {
+		int length = end - start;
+		if (length > buffer.length - count) {
+			drain();
+			if (length > buffer.length) {
+				write(s, start, length);
+				return;
+			}
+		}
+		s.getChars(start, end, buffer, count);
+		count += length;
+	}
+
+	public void append(char[] chars, int offset, int length) {
+		if (length > buffer.length - count) {
+			drain();
+			if (length > buffer.length) {
+				write(chars, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(chars, offset, buffer, count, length);
+		count += length;
+	}
+
+	public void flush() {
+		drain();
+	}
+
+	public Writer getWriter() {
+		return writer;
+	}
+
+	private void drain() {
+		if (count > 0) {
+			write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	private void write(char[] chars, int offset, int length) {
+		try {
+			writer.write(chars, offset, length);
+		} catch (IOException e) {
+			throw new PPException(e);
+		}
+	}
+
+	private void write(String s, int offset, int length) {
+		try {
+			writer.write(s, offset, length);
+		} catch (IOException e) {
+			throw new PPException(e);
+		}
+	}
+}
@@ -1,19 +1,39 @@
 package jsonpp.util;
 
+import fr.umlv.jmmf.reflect.Invoker;
 import fr.umlv.jmmf.reflect.MultiMethod;
 import fr.umlv.jmmf.reflect.MultiFactory;
 import fr.umlv.jmmf.reflect.MultipleMethodsException;
 
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
 
 import jsonpp.PPException;
 
+/**
+ * A multi-method bound to the object it is called on. Single argument calls, best made with
+ * {@link #call1(Object)} which needs no array, go through an inline cache remembering the
+ * methods dispatch picked for the last few argument classes: a call with one of them skips
+ * the multi-method dispatch and calls the method directly. Once more than
+ * {@link #POLYMORPHIC_LIMIT} classes have been seen, the cache is dropped for good and every
+ * call is dispatched. A box may be shared between threads; the cache is replaced as a whole.
+ */
 public class MethodBox<T> {
+	public static final int POLYMORPHIC_LIMIT = 8;
+
+	private static final InlineCache EMPTY = new InlineCache(new Class[0], new Invoker[0]);
+	private static final InlineCache MEGAMORPHIC = new InlineCache(new Class[0], new Invoker[0]);
+
 	private MultiMethod method;
 	private T defaultValue;
 	private Object object;
 	private boolean missing = false;
 	private String name;
+	private volatile InlineCache cache = EMPTY;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder megamorphicCalls = new LongAdder();
 
 	public MethodBox(Object o, String name, T defaultValue) {
 		this(o, name, 1);
@@ -39,32 +59,149 @@ public class MethodBox<T> {
 	}
 
 	public T call(Object... args) {
+		if (args.length == 1) {
+			return call1(args[0]);
+		}
 		if (this.missing) {
-			if (this.defaultValue != null) {
-				return defaultValue;
-			} else {
-				throw new PPException("missing required method: " + this.name + joinArgs(args) + " in class " + this.object.getClass());
-			}
+			return missing(args);
 		}
 		try {
 			//noinspection unchecked
 			return (T)this.method.invoke(this.object, args);
-		} catch (IllegalAccessException e) {
-			throw new PPException(e);
-		} catch (InvocationTargetException e) {
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			return recover(e);
+		}
+	}
+
+	/**
+	 * Same as call(arg) without the array of arguments.
+	 */
+	public T call1(Object arg) {
+		if (this.missing) {
+			return missing(arg);
+		}
+		try {
+			if (arg != null) {
+				Invoker target = lookup(arg.getClass());
+				if (target != null) {
+					//noinspection unchecked
+					return (T)target.invoke1(this.object, arg);
+				}
+			}
+			//noinspection unchecked
+			return (T)this.method.invoke1(this.object, arg);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			return recover(e);
+		}
+	}
+
+	private T missing(Object... args) {
+		if (this.defaultValue != null) {
+			return defaultValue;
+		} else {
+			throw new PPException("missing required method: " + this.name + joinArgs(args) + " in class " + this.object.getClass());
+		}
+	}
+
+	private T recover(Exception e) {
+		if (e instanceof InvocationTargetException) {
 			if (e.getCause() instanceof RuntimeException) {
 				throw ((RuntimeException)e.getCause());
 			} else {
 				throw new PPException(e.getCause());
 			}
-		} catch (NoSuchMethodException e) {
+		}
+		if (e instanceof NoSuchMethodException) {
 			if (defaultValue != null) {
 				return defaultValue;
 			} else {
 				throw new PPException("missing required method: " + method.getName());
 			}
+		}
+		// IllegalAccessException, MultipleMethodsException
+		throw new PPException(e);
+	}
+
+	/**
+	 * The cached method for <code>type</code>, resolving and caching it on a miss, or null if
+	 * the call has to be dispatched.
+	 */
+	private Invoker lookup(Class type) {
+		InlineCache cache = this.cache;
+		if (cache == MEGAMORPHIC) {
+			megamorphicCalls.increment();
+			return null;
+		}
+		Class[] classes = cache.classes;
+		for (int i = 0; i < classes.length; i++) {
+			if (classes[i] == type) {
+				hits.increment();
+				return cache.targets[i];
+			}
+		}
+		misses.increment();
+		Invoker target;
+		try {
+			target = this.method.getInvoker(this.object.getClass(), new Class[] {type});
+		} catch (NoSuchMethodException e) {
+			return null;
 		} catch (MultipleMethodsException e) {
-			throw new PPException(e);
+			return null;
+		}
+		if (classes.length == POLYMORPHIC_LIMIT) {
+			this.cache = MEGAMORPHIC;
+		} else {
+			// a racing thread may lose its update, it is then a miss again
+			this.cache = cache.add(type, target);
+		}
+		return target;
+	}
+
+	public long getCacheHits() {
+		return hits.sum();
+	}
+
+	public long getCacheMisses() {
+		return misses.sum();
+	}
+
+	public long getMegamorphicCalls() {
+		return megamorphicCalls.sum();
+	}
+
+	/**
+	 * How many argument classes the inline cache holds, or -1 once it went megamorphic.
+	 */
+	public int getCachedClassCount() {
+		InlineCache cache = this.cache;
+		return cache == MEGAMORPHIC ? -1 : cache.classes.length;
+	}
+
+	public String getCacheStats() {
+		int count = getCachedClassCount();
+		String state = count == -1 ? "megamorphic" : count == 0 ? "uninitialized" : count == 1 ? "monomorphic" : "polymorphic";
+		return name + ": " + state + ", hits=" + getCacheHits() + ", misses=" + getCacheMisses()
+				+ ", megamorphic=" + getMegamorphicCalls();
+	}
+
+	/**
+	 * The method a call with arguments of the given classes would run, or null if the
+	 * multi-method is missing or has no single most specific method for them.
+	 */
+	public Method resolve(Class... types) {
+		if (this.missing) {
+			return null;
+		}
+		try {
+			return this.method.getMethod(this.object.getClass(), types);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (MultipleMethodsException e) {
+			return null;
 		}
 	}
 
@@ -82,6 +219,27 @@ public class MethodBox<T> {
 		return buffer.toString();
 	}
 
+	private static final class InlineCache {
+		final Class[] classes;
+		final Invoker[] targets;
+
+		InlineCache(Class[] classes, Invoker[] targets) {
+			this.classes = classes;
+			this.targets = targets;
+		}
+
+		InlineCache add(Class type, Invoker target) {
+			int length = classes.length;
+			Class[] classes = new Class[length + 1];
+			Invoker[] targets = new Invoker[length + 1];
+			System.arraycopy(this.classes, 0, classes, 0, length);
+			System.arraycopy(this.targets, 0, targets, 0, length);
+			classes[length] = type;
+			targets[length] = target;
+			return new InlineCache(classes, targets);
+		}
+	}
+
 	public static <T> MethodBox<T> mm(Object object, String name, T defaultValue) {
 		return new MethodBox<T>(object, name, defaultValue);
 	}
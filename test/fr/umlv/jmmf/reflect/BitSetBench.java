@@ -0,0 +1,107 @@
+package fr.umlv.jmmf.reflect;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/** measures invoke1 on multi-methods with 64, 256 and 1024
+    methods, which use a BitSetImpl. The classes of parameter form
+    chains of 16 subclasses, the host class is generated and
+    compiled at startup.
+    <pre>
+    java -cp build/classes:&lt;test classes&gt; fr.umlv.jmmf.reflect.BitSetBench [methods...]
+    </pre>
+    -Dn=calls sets the number of calls per round, 200000 by default.
+ */
+public class BitSetBench {
+  public static void main(String[] args) throws Exception {
+    int[] sizes={ 64, 256, 1024 };
+    if (args.length!=0) {
+      sizes=new int[args.length];
+      for(int i=0;i<args.length;i++)
+        sizes[i]=Integer.parseInt(args[i]);
+    }
+
+    File dir=Files.createTempDirectory("bitset-bench").toFile();
+    for(int size:sizes)
+      run(size,compile(dir,size));
+  }
+
+  private static void run(int size,Class hostClass) throws Exception {
+    Object host=hostClass.getConstructor().newInstance();
+    MultiMethod mm=MultiMethod.create(hostClass,"f",1);
+
+    // 16 arguments of random classes
+    ClassLoader loader=hostClass.getClassLoader();
+    Random random=new Random(0);
+    Object[] values=new Object[16];
+    for(int i=0;i<values.length;i++)
+      values[i]=loader.loadClass("K"+random.nextInt(size))
+        .getConstructor().newInstance();
+
+    int calls=Integer.getInteger("n",200000).intValue();
+    for(int round=0;round<10;round++) {
+      long start=System.nanoTime();
+      int sum=0;
+      for(int i=0;i<calls;i++)
+        sum+=((Integer)mm.invoke1(host,values[i&15])).intValue();
+      long elapsed=System.nanoTime()-start;
+
+      // the first rounds are the warm-up
+      if (round>=6)
+        System.out.println(size+" methods: "+elapsed/(double)calls+
+          " ns/call "+sum);
+    }
+  }
+
+  /** generate and compile the classes K0 to K(size-1),
+      and a class Host with one method f per class.
+   */
+  private static Class compile(File root,int size) throws Exception {
+    File dir=new File(root,"m"+size);
+    dir.mkdir();
+    JavaCompiler compiler=ToolProvider.getSystemJavaCompiler();
+    if (compiler==null)
+      throw new IllegalStateException("needs a JDK");
+
+    String[] files=new String[size+1];
+    for(int i=0;i<size;i++) {
+      String superclass=(i%16==0)?"":" extends K"+(i-1);
+      files[i]=write(dir,"K"+i,
+        "public class K"+i+superclass+" {}\n");
+    }
+    StringBuilder host=new StringBuilder("public class Host {\n");
+    for(int i=0;i<size;i++)
+      host.append("  public int f(K").append(i).append(" k) { return ")
+        .append(i).append("; }\n");
+    host.append("}\n");
+    files[size]=write(dir,"Host",host.toString());
+
+    if (compiler.run(null,null,null,files)!=0)
+      throw new IllegalStateException("generated classes don't compile");
+
+    ClassLoader loader=new URLClassLoader(new URL[]{dir.toURI().toURL()},
+      BitSetBench.class.getClassLoader());
+    return loader.loadClass("Host");
+  }
+
+  private static String write(File dir,String name,String source)
+    throws IOException {
+    File file=new File(dir,name+".java");
+    Writer writer=new FileWriter(file);
+    try {
+      writer.write(source);
+    } finally {
+      writer.close();
+    }
+    return file.getPath();
+  }
+}
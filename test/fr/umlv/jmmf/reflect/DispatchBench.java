@@ -0,0 +1,41 @@
+package fr.umlv.jmmf.reflect;
+
+/** measures a call through a multi-method with three methods
+    and four classes of argument, on one thread.
+    <pre>
+    java -cp build/classes:&lt;test classes&gt; fr.umlv.jmmf.reflect.DispatchBench
+    </pre>
+    -Done=true calls invoke1 instead of invoke with an argument array.
+ */
+public class DispatchBench {
+  public static class Host {
+    public Object f(Object o) { return o; }
+    public Object f(String s) { return s; }
+    public Object f(Integer i) { return i; }
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean one=Boolean.getBoolean("one");
+    Host host=new Host();
+    MultiMethod mm=MultiMethod.create(Host.class,"f",1);
+    Object[] values={ 1, "s", true, 2.5 };
+    int calls=5000000;
+
+    for(int round=0;round<10;round++) {
+      long start=System.nanoTime();
+      int nulls=0;
+      for(int i=0;i<calls;i++) {
+        Object value=values[i&3];
+        Object result=one?mm.invoke1(host,value):
+          mm.invoke(host,new Object[]{value});
+        if (result==null)
+          nulls++;
+      }
+      long elapsed=System.nanoTime()-start;
+
+      // the first rounds are the warm-up
+      if (round>=6)
+        System.out.println(elapsed/(double)calls+" ns/call "+nulls);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package fr.umlv.jmmf.reflect;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+
+/** measures invoke1 with sixteen classes of argument,
+    all warmed up, on a multi-method frozen or not.
+    <pre>
+    java -cp build/classes:&lt;test classes&gt; fr.umlv.jmmf.reflect.FreezeBench
+    </pre>
+    -Dfreeze=true freezes the multi-method after the warm up.
+ */
+public class FreezeBench {
+  public static class Host {
+    public Object f(Object o) { return o; }
+    public Object f(CharSequence s) { return s; }
+    public Object f(Number n) { return n; }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Host host=new Host();
+    MultiMethod mm=MultiMethod.create(Host.class,"f",1);
+    Object[] values={ 1, "s", true, 2.5, 3L, 'c', new StringBuilder(),
+      new Object(), new int[0], (short)1, 1f, (byte)2, new ArrayList(),
+      new HashMap(), Thread.State.NEW, new Date() };
+
+    Class[] classes=new Class[values.length];
+    for(int i=0;i<values.length;i++)
+      classes[i]=values[i].getClass();
+    mm.warmUp(classes);
+    if (Boolean.getBoolean("freeze"))
+      mm.freeze();
+
+    int calls=5000000;
+    for(int round=0;round<10;round++) {
+      long start=System.nanoTime();
+      int nulls=0;
+      for(int i=0;i<calls;i++)
+        if (mm.invoke1(host,values[i&15])==null)
+          nulls++;
+      long elapsed=System.nanoTime()-start;
+
+      // the first rounds are the warm-up
+      if (round>=6)
+        System.out.println(elapsed/(double)calls+" ns/call "+nulls);
+    }
+  }
+}
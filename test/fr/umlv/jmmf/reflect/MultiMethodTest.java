@@ -0,0 +1,512 @@
+package fr.umlv.jmmf.reflect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MultiMethodTest {
+  public interface Shape {}
+  public static class Square implements Shape {}
+  public static class Circle implements Shape {}
+
+  public static class Printer {
+    public String print(Object o) { return "object"; }
+    public String print(Shape s) { return "shape"; }
+    public String print(Circle c) { return "circle"; }
+    public static String print(String s) { return "static "+s; }
+  }
+
+  public static class Thrower {
+    public void fail(String message) throws IOException {
+      throw new IOException(message);
+    }
+    public void fail(Integer code) {
+      throw new IllegalStateException("code "+code);
+    }
+  }
+
+  public static class Pair {
+    public String pair(Object a,Object b) { return "object object"; }
+    public String pair(Shape a,Circle b) { return "shape circle"; }
+    public static String pair(String a,String b) { return a+b; }
+  }
+
+  /** more methods pair than a 32 bits mask can hold.
+   */
+  public static class WidePair {
+    public String pair(Object a,Object b) { return "oo"; }
+    public String pair(Object a,String b) { return "os"; }
+    public String pair(Object a,Number b) { return "on"; }
+    public String pair(Object a,Integer b) { return "oi"; }
+    public String pair(Object a,Shape b) { return "oh"; }
+    public String pair(Object a,Square b) { return "oq"; }
+    public String pair(String a,Object b) { return "so"; }
+    public String pair(String a,String b) { return "ss"; }
+    public String pair(String a,Number b) { return "sn"; }
+    public String pair(String a,Integer b) { return "si"; }
+    public String pair(String a,Shape b) { return "sh"; }
+    public String pair(String a,Square b) { return "sq"; }
+    public String pair(Number a,Object b) { return "no"; }
+    public String pair(Number a,String b) { return "ns"; }
+    public String pair(Number a,Number b) { return "nn"; }
+    public String pair(Number a,Integer b) { return "ni"; }
+    public String pair(Number a,Shape b) { return "nh"; }
+    public String pair(Number a,Square b) { return "nq"; }
+    public String pair(Integer a,Object b) { return "io"; }
+    public String pair(Integer a,String b) { return "is"; }
+    public String pair(Integer a,Number b) { return "in"; }
+    public String pair(Integer a,Integer b) { return "ii"; }
+    public String pair(Integer a,Shape b) { return "ih"; }
+    public String pair(Integer a,Square b) { return "iq"; }
+    public String pair(Shape a,Object b) { return "ho"; }
+    public String pair(Shape a,String b) { return "hs"; }
+    public String pair(Shape a,Number b) { return "hn"; }
+    public String pair(Shape a,Integer b) { return "hi"; }
+    public String pair(Shape a,Shape b) { return "hh"; }
+    public String pair(Shape a,Square b) { return "hq"; }
+    public String pair(Square a,Object b) { return "qo"; }
+    public String pair(Square a,String b) { return "qs"; }
+    public String pair(Square a,Number b) { return "qn"; }
+    public String pair(Square a,Integer b) { return "qi"; }
+    public String pair(Square a,Shape b) { return "qh"; }
+    public String pair(Square a,Square b) { return "qq"; }
+  }
+
+  public static class OtherPrinter {
+    public String print(Square s) { return "other square"; }
+    public String print(Number n) { return "other number"; }
+  }
+
+  public static class MorePrinter extends Printer {
+    public String print(Square s) { return "square"; }
+    public String print(Number n) { return "number"; }
+  }
+
+  public static class Nop {
+    public void nop(Object o) { }
+  }
+
+  public static class PluginShape implements Shape {}
+  public static class PluginPrinter extends Printer {}
+
+  /** defines its own copy of the Plugin classes, like a plugin host.
+   */
+  static final class IsolatingLoader extends ClassLoader {
+    IsolatingLoader() {
+      super(MultiMethodTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name,boolean resolve)
+      throws ClassNotFoundException {
+      if (!name.startsWith(MultiMethodTest.class.getName()+"$Plugin"))
+        return super.loadClass(name,resolve);
+      synchronized(getClassLoadingLock(name)) {
+        Class<?> clazz=findLoadedClass(name);
+        if (clazz==null) {
+          String path=name.replace('.','/')+".class";
+          try(InputStream input=getParent().getResourceAsStream(path)) {
+            byte[] bytes=input.readAllBytes();
+            clazz=defineClass(name,bytes,0,bytes.length);
+          } catch(IOException e) {
+            throw new ClassNotFoundException(name,e);
+          }
+        }
+        return clazz;
+      }
+    }
+  }
+
+  @Test
+  public void CallTheMostSpecificMethod() throws Exception {
+    MultiMethod mm=MultiMethod.create(Printer.class,"print",1);
+    Printer printer=new Printer();
+    assertEquals("object",mm.invoke(printer,new Object[]{1}));
+    assertEquals("shape",mm.invoke(printer,new Object[]{new Square()}));
+    assertEquals("circle",mm.invoke(printer,new Object[]{new Circle()}));
+    assertEquals("static a",mm.invoke(printer,new Object[]{"a"}));
+    assertEquals("static b",mm.invoke(null,new Object[]{"b"}));
+    assertEquals("shape",mm.invoke(printer,new Object[]{new Circle()},
+      new Class[]{Shape.class}));
+
+    for(Invoker invoker:mm.dispatchMap.get(Printer.class).invokers)
+      assertFalse(invoker instanceof Invoker.ReflectInvoker);
+  }
+
+  @Test
+  public void CallWithoutArgumentArrays() throws Exception {
+    MultiMethod print=MultiMethod.create(Printer.class,"print",1);
+    Printer printer=new Printer();
+    assertEquals("circle",print.invoke1(printer,new Circle()));
+    assertEquals("shape",print.invoke1(printer,new Square()));
+    assertEquals("static a",print.invoke1(null,"a"));
+
+    MultiMethod pair=MultiMethod.create(Pair.class,"pair",2);
+    assertEquals("shape circle",pair.invoke2(new Pair(),new Square(),new Circle()));
+    assertEquals("object object",pair.invoke2(new Pair(),new Circle(),new Square()));
+    assertEquals("ab",pair.invoke2(null,"a","b"));
+    assertEquals("ab",pair.invoke(new Pair(),new Object[]{"a","b"}));
+
+    try {
+      pair.invoke1(new Pair(),"a");
+      fail();
+    } catch(IllegalArgumentException e) {
+      // two parameters
+    }
+    try {
+      MultiMethod.create(Thrower.class,"fail",1).invoke1(new Thrower(),"io");
+      fail();
+    } catch(InvocationTargetException e) {
+      assertSame(IOException.class,e.getCause().getClass());
+    }
+  }
+
+  @Test
+  public void CacheTheMethodOfATupleOfClasses() throws Exception {
+    MultiMethod pair=new MultiFactory().create(Pair.class,"pair",2);
+    BitMask staticMask=pair.hostDispatchEntry.staticVisibility;
+    assertEquals(-1,pair.tupleCache.get2(staticMask,"a","b"));
+
+    for(int i=0;i<2;i++) {
+      assertEquals("shape circle",pair.invoke2(new Pair(),null,new Circle()));
+      assertEquals("shape circle",
+        pair.invoke(new Pair(),new Object[]{new Square(),new Circle()}));
+      assertEquals("shape circle",pair.invoke2(new Pair(),new Circle(),null));
+      assertEquals("anull",pair.invoke2(new Pair(),"a",null));
+      assertEquals("object object",pair.invoke2(new Pair(),1,null));
+      assertEquals("ab",pair.invoke2(null,"a","b"));
+    }
+    assertTrue(pair.tupleCache.get2(staticMask,"a","b")!=-1);
+    assertNull(MultiMethod.create(Printer.class,"print",1).tupleCache);
+  }
+
+  @Test
+  public void EvictOrKeepTheTupleOfATakenSlot() {
+    BitMask mask=new Bit32Mask();
+    for(boolean replace:new boolean[]{true,false}) {
+      TupleCache cache=new TupleCache(1,replace);
+      cache.put(mask,new Class[]{String.class,Integer.class},3);
+      cache.put(mask,new Class[]{Integer.class,String.class},5);
+      assertEquals(replace?-1:3,cache.get(mask,new Object[]{"a",1}));
+      assertEquals(replace?5:-1,cache.get2(mask,1,"a"));
+    }
+  }
+
+  @Test
+  public void ShareTheImplementationBetweenClasses() throws Exception {
+    MultiFactory factory=new MultiFactory();
+    MultiMethod print=factory.create(Printer.class,"print",1);
+    MultiMethod other=factory.create(OtherPrinter.class,"print",1);
+    assertSame(print,factory.create(Printer.class,"print",1));
+    assertSame(print.family,other.family);
+    try {
+      factory.create(Nop.class,"print",1);
+      fail();
+    } catch(IllegalArgumentException e) {
+      // no print method
+    }
+
+    Printer printer=new Printer();
+    OtherPrinter otherPrinter=new OtherPrinter();
+    for(int i=0;i<3;i++) {
+      assertEquals("shape",print.invoke1(printer,new Square()));
+      assertEquals("other square",other.invoke1(otherPrinter,new Square()));
+      assertEquals("object",print.invoke1(printer,1));
+      assertEquals("other number",other.invoke1(otherPrinter,1));
+    }
+
+    MultiFactory unshared=new MultiFactory(false);
+    assertFalse(unshared.create(Printer.class,"print",1).family==
+      unshared.create(OtherPrinter.class,"print",1).family);
+  }
+
+  @Test
+  public void UpgradeTheImplementationOfAllMultiMethodsAtOnce() throws Exception {
+    MultiFactory factory=new MultiFactory();
+    final MultiMethod pair=factory.create(Pair.class,"pair",2);
+    final Pair target=new Pair();
+    final CountDownLatch stop=new CountDownLatch(1);
+    final AtomicReference<Throwable> failure=new AtomicReference<Throwable>();
+    assertEquals(0,pair.getUpgradeCount());
+
+    Thread[] threads=new Thread[4];
+    for(int t=0;t<threads.length;t++) {
+      threads[t]=new Thread() {
+        public void run() {
+          try {
+            while(stop.getCount()!=0) {
+              assertEquals("shape circle",
+                pair.invoke2(target,new Square(),new Circle()));
+              assertEquals("object object",pair.invoke2(target,1,"a"));
+              assertEquals("ab",pair.invoke2(null,"a","b"));
+            }
+          } catch(Throwable e) {
+            failure.compareAndSet(null,e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    // upgraded while the threads dispatch
+    MultiMethod wide=factory.create(WidePair.class,"pair",2);
+    stop.countDown();
+    for(Thread thread:threads)
+      thread.join();
+    if (failure.get()!=null)
+      throw new AssertionError(failure.get());
+
+    assertEquals(1,pair.getUpgradeCount());
+    assertTrue(pair.family.impl instanceof Bit64Impl);
+    assertSame(pair.family,wide.family);
+    assertEquals("si",wide.invoke2(new WidePair(),"a",1));
+    assertEquals("qn",wide.invoke2(new WidePair(),new Square(),2L));
+    assertEquals("ho",wide.invoke2(new WidePair(),new Circle(),new Object()));
+    assertEquals("shape circle",pair.invoke2(target,new Circle(),new Circle()));
+  }
+
+  @Test
+  public void DispatchFromManyThreadsWhileClassesAreFirstSeen() throws Exception {
+    final Object[] args={ new Square(), new Circle(), 1, 2L, 3.0, 'c',
+      new Object(), new int[0], new String[0], new StringBuilder(), "s" };
+    final String[] printed={ "shape", "circle", "object", "object", "object",
+      "object", "object", "object", "object", "object", "static s" };
+    final String[] morePrinted={ "square", "circle", "number", "number", "number",
+      "object", "object", "object", "object", "object", "static s" };
+    final Printer printer=new Printer();
+    final Printer morePrinter=new MorePrinter();
+    final AtomicReference<Throwable> failure=new AtomicReference<Throwable>();
+
+    for(int round=0;round<50;round++) {
+      // a new factory so that every class is seen for the first time
+      final MultiMethod mm=new MultiFactory().create(Printer.class,"print",1);
+      final CountDownLatch start=new CountDownLatch(1);
+      Thread[] threads=new Thread[4];
+      for(int t=0;t<threads.length;t++) {
+        final int offset=t;
+        threads[t]=new Thread() {
+          public void run() {
+            try {
+              start.await();
+              for(int i=0;i<args.length*4;i++) {
+                int index=(i+offset*3)%args.length;
+                boolean more=((i+offset)&1)==0;
+                Object result=more?
+                  mm.invoke1(morePrinter,args[index]):
+                  mm.invoke(printer,new Object[]{args[index]});
+                assertEquals((more?morePrinted:printed)[index],result);
+              }
+            } catch(Throwable e) {
+              failure.compareAndSet(null,e);
+            }
+          }
+        };
+        threads[t].start();
+      }
+      start.countDown();
+      for(Thread thread:threads)
+        thread.join();
+
+      if (failure.get()!=null)
+        throw new AssertionError("round "+round,failure.get());
+    }
+  }
+
+  @Test
+  public void WarmUpAndFreezeThenFallBackForNewClasses() throws Exception {
+    MultiMethod mm=new MultiFactory().create(Printer.class,"print",1);
+    mm.warmUp(new Class[]{Square.class,Circle.class,MorePrinter.class});
+    mm.freeze();
+
+    Annotation32Map annotation=((Bit32Impl)mm.family.impl).annotations[0];
+    assertTrue(annotation.frozen);
+    Annotation32Map.Table table=annotation.table;
+    int size=table.keys.length;
+    assertSame(Square.class,
+      table.keys[PerfectHash.index(Square.class,table.shift,size)]);
+    assertEquals(-1,annotation.get(Integer.class));
+
+    Printer printer=new Printer();
+    Printer morePrinter=new MorePrinter();
+    assertEquals("shape",mm.invoke1(printer,new Square()));
+    assertEquals("square",mm.invoke1(morePrinter,new Square()));
+    assertEquals("circle",mm.invoke1(morePrinter,new Circle()));
+
+    // not seen before freezing
+    assertEquals("object",mm.invoke1(printer,1));
+    assertEquals("number",mm.invoke1(morePrinter,1));
+    assertTrue(annotation.get(Square.class)!=-1);
+  }
+
+  @Test
+  public void FindAPerfectHashForManyClasses() {
+    Class[] keys={ Object.class, String.class, Integer.class, Long.class,
+      Double.class, Square.class, Circle.class, Shape.class, Printer.class,
+      MorePrinter.class, Thread.class, Runnable.class, int[].class, Void.TYPE };
+
+    PerfectHash hash=PerfectHash.find(keys,16);
+    assertNotNull(hash);
+    boolean[] used=new boolean[hash.getSize()];
+    for(Class key:keys) {
+      int index=PerfectHash.index(key,hash.getShift(),hash.getSize());
+      assertFalse(used[index]);
+      used[index]=true;
+    }
+  }
+
+  @Test
+  public void IntersectMasksOfManyWordsLikeABitSet() {
+    Random random=new Random(0);
+    for(int round=0;round<200;round++) {
+      int size=1+random.nextInt(300);
+      BitSetMask mask=new BitSetMask();
+      BitSetMask other=new BitSetMask();
+      BitSet set=new BitSet();
+      BitSet otherSet=new BitSet();
+      for(int i=random.nextInt(size);--i>=0;) {
+        int index=random.nextInt(size);
+        mask.set(index);
+        set.set(index);
+        index=random.nextInt(size);
+        other.set(index);
+        otherSet.set(index);
+      }
+      if (random.nextBoolean()) {
+        mask.and(other);
+        set.and(otherSet);
+      } else {
+        mask.or(other);
+        set.or(otherSet);
+      }
+      assertEquals(set.length(),mask.length());
+      assertEquals(set.cardinality()==1,mask.onlyOneBitSet());
+      assertEquals(set.toString(),mask.toString());
+      for(int i=0;i<=size;i++) {
+        assertEquals(set.get(i),mask.get(i));
+        assertEquals(set.nextSetBit(i),mask.nextSetBit(i));
+      }
+    }
+    assertEquals("{0, 31}",
+      new BitSetMask().or(new Bit32Mask(0x80000001)).toString());
+    assertEquals("{0, 63, 200}",
+      new BitSetMask().set(200).or(new Bit64Mask(0x8000000000000001L))
+      .toString());
+    assertEquals(70,BitSetMask.fill(70).length());
+  }
+
+  @Test
+  public void WrapExceptionsOfTheCalledMethod() throws Exception {
+    MultiMethod mm=MultiMethod.create(Thrower.class,"fail",1);
+    for(Object arg:new Object[]{"io",42}) {
+      try {
+        mm.invoke(new Thrower(),new Object[]{arg});
+        fail();
+      } catch(InvocationTargetException e) {
+        assertSame(arg instanceof String?IOException.class:
+          IllegalStateException.class,e.getCause().getClass());
+      }
+    }
+  }
+
+  @Test
+  public void ReleaseTheClassesOfDroppedLoaders() throws Exception {
+    MultiMethod mm=new MultiFactory().create(Printer.class,"print",1);
+    MultiFactory unshared=new MultiFactory(false);
+    List<WeakReference<ClassLoader>> loaders=
+      new ArrayList<WeakReference<ClassLoader>>();
+    for(int i=0;i<5;i++) {
+      loaders.add(new WeakReference<ClassLoader>(usePlugin(mm)));
+      // the plugin declares the multi-methods, in long-lived factories
+      loaders.add(new WeakReference<ClassLoader>(
+        declarePlugin(MultiFactory.getDefaultFactory())));
+      loaders.add(new WeakReference<ClassLoader>(declarePlugin(unshared)));
+    }
+
+    for(int i=0;i<50 && !cleared(loaders);i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertTrue(cleared(loaders));
+    assertEquals("shape",mm.invoke1(new Printer(),new Square()));
+  }
+
+  private static ClassLoader usePlugin(MultiMethod mm) throws Exception {
+    ClassLoader loader=new IsolatingLoader();
+    Object shape=loader.loadClass(PluginShape.class.getName())
+      .getConstructor().newInstance();
+    Object printer=loader.loadClass(PluginPrinter.class.getName())
+      .getConstructor().newInstance();
+    assertNotSame(PluginShape.class,shape.getClass());
+
+    assertEquals("shape",mm.invoke1(new Printer(),shape));
+    assertEquals("shape",mm.invoke1(printer,shape));
+    assertEquals("circle",mm.invoke(printer,new Object[]{new Circle()}));
+
+    // looked up in the weak maps, not in the tables
+    Annotation32Map annotation=((Bit32Impl)mm.family.impl).annotations[0];
+    assertTrue(annotation.get(shape.getClass())!=-1);
+    assertEquals(-1,annotation.getAnchored(shape.getClass()));
+    return loader;
+  }
+
+  private static ClassLoader declarePlugin(MultiFactory factory)
+    throws Exception {
+    ClassLoader loader=new IsolatingLoader();
+    Class<?> printerClass=loader.loadClass(PluginPrinter.class.getName());
+    Object printer=printerClass.getConstructor().newInstance();
+    Object shape=loader.loadClass(PluginShape.class.getName())
+      .getConstructor().newInstance();
+
+    MultiMethod mm=factory.create(printerClass,"print",1);
+    assertEquals("shape",mm.invoke1(printer,shape));
+    assertEquals("circle",mm.invoke1(printer,new Circle()));
+    assertEquals("object",factory.create(printerClass,"print",1)
+      .invoke1(printer,1));
+    // next to the multi-methods of classes that are never unloaded
+    assertEquals("shape",factory.create(Printer.class,"print",1)
+      .invoke1(new Printer(),new Square()));
+    return loader;
+  }
+
+  private static boolean cleared(List<WeakReference<ClassLoader>> loaders) {
+    for(WeakReference<ClassLoader> loader:loaders)
+      if (loader.get()!=null)
+        return false;
+    return true;
+  }
+
+  @Test
+  public void ReturnNullForVoidMethodsAndRejectBadTargets() throws Exception {
+    MultiMethod mm=MultiMethod.create(Printer.class,"print",1);
+    try {
+      mm.invoke(new Object(),new Object[]{"a"});
+      fail();
+    } catch(IllegalArgumentException e) {
+      // not a Printer
+    }
+    try {
+      mm.invoke(new Printer(),new Object[]{"a"},new Class[]{Shape.class});
+      fail();
+    } catch(IllegalArgumentException e) {
+      // not a Shape
+    }
+    MultiMethod nop=MultiMethod.create(Nop.class,"nop",1);
+    assertNull(nop.invoke(new Nop(),new Object[]{"a"}));
+  }
+}
@@ -0,0 +1,40 @@
+package fr.umlv.jmmf.reflect;
+
+/** measures invoke1 on one multi-method shared by 1, 2, 4
+    and 8 threads, twice each, to see if the search scales.
+    <pre>
+    java -cp build/classes:&lt;test classes&gt; fr.umlv.jmmf.reflect.ScalingBench
+    </pre>
+ */
+public class ScalingBench {
+  public static void main(String[] args) throws Exception {
+    final DispatchBench.Host host=new DispatchBench.Host();
+    final MultiMethod mm=MultiMethod.create(DispatchBench.Host.class,"f",1);
+    final Object[] values={ 1, "s", true, 2.5 };
+    final int calls=4000000;
+
+    for(int threadCount:new int[]{1,2,4,8,1,2,4,8}) {
+      Thread[] threads=new Thread[threadCount];
+      long start=System.nanoTime();
+      for(int t=0;t<threadCount;t++) {
+        threads[t]=new Thread() {
+          public void run() {
+            try {
+              for(int i=0;i<calls;i++)
+                mm.invoke1(host,values[i&3]);
+            } catch(Exception e) {
+              throw new RuntimeException(e);
+            }
+          }
+        };
+        threads[t].start();
+      }
+      for(Thread thread:threads)
+        thread.join();
+      long elapsed=System.nanoTime()-start;
+
+      System.out.println(threadCount+" threads: "+
+        elapsed/((double)calls*threadCount)+" ns/call");
+    }
+  }
+}
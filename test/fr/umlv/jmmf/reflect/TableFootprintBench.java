@@ -0,0 +1,77 @@
+package fr.umlv.jmmf.reflect;
+
+/** measures the heap used per class by the annotation,
+    dispatch and hierarchy tables, filled with twenty classes,
+    then the time of an annotation lookup.
+    <pre>
+    java -cp build/classes:&lt;test classes&gt; fr.umlv.jmmf.reflect.TableFootprintBench
+    </pre>
+ */
+public class TableFootprintBench {
+  private static final Class[] CLASSES={
+    Object.class, String.class, Integer.class, Long.class, Double.class,
+    Float.class, Short.class, Byte.class, Character.class, Boolean.class,
+    Number.class, Thread.class, Runnable.class, int[].class,
+    Comparable.class, CharSequence.class, StringBuilder.class,
+    Exception.class, Error.class, Throwable.class };
+
+  private static final int TABLES=20000;
+
+  public static void main(String[] args) {
+    Object[] tables=new Object[TABLES];
+    long before=used();
+    for(int i=0;i<TABLES;i++) {
+      Annotation32Map map=new Annotation32Map();
+      for(Class clazz:CLASSES)
+        map.put(clazz,i|1);
+      tables[i]=map;
+    }
+    print("Annotation32Map",before,tables);
+
+    tables=new Object[TABLES];
+    before=used();
+    for(int i=0;i<TABLES;i++) {
+      DispatchMap map=new DispatchMap();
+      for(Class clazz:CLASSES)
+        map.put(clazz,null,null,null);
+      tables[i]=map;
+    }
+    print("DispatchMap (with entries)",before,tables);
+
+    tables=new Object[TABLES];
+    before=used();
+    for(int i=0;i<TABLES;i++) {
+      DAGHierarchy hierarchy=new DAGHierarchy();
+      for(Class clazz:CLASSES)
+        hierarchy.add(clazz);
+      tables[i]=hierarchy;
+    }
+    print("DAGHierarchy (with entries)",before,tables);
+
+    Annotation32Map map=new Annotation32Map();
+    for(Class clazz:CLASSES)
+      map.put(clazz,1);
+    int lookups=20000000;
+    long sum=0;
+    for(int round=0;round<5;round++) {
+      long start=System.nanoTime();
+      for(int i=0;i<lookups;i++)
+        sum+=map.get(CLASSES[i%CLASSES.length]);
+      System.out.println("get: "+(System.nanoTime()-start)/(double)lookups+
+        " ns "+sum);
+    }
+  }
+
+  private static void print(String name,long before,Object[] tables) {
+    long after=used();
+    System.out.println(name+": "+
+      (after-before)/((double)tables.length*CLASSES.length)+" bytes/class");
+  }
+
+  private static long used() {
+    Runtime runtime=Runtime.getRuntime();
+    for(int i=0;i<5;i++)
+      System.gc();
+    return runtime.totalMemory()-runtime.freeMemory();
+  }
+}
@@ -0,0 +1,60 @@
+package fr.umlv.jmmf.reflect;
+
+/** measures, on the same multi-method with two parameters,
+    the search of the most specific method through the annotations
+    against a hit in the tuple cache.
+    <pre>
+    java -cp build/classes:&lt;test classes&gt; fr.umlv.jmmf.reflect.TupleCacheBench
+    </pre>
+    -Dtuples=n sets the number of distinct tuples used, 8 by default.
+ */
+public class TupleCacheBench {
+  public interface Shape {}
+  public static class Square implements Shape {}
+  public static class Circle implements Shape {}
+
+  public static class Host {
+    public Object f(Object a,Object b) { return a; }
+    public Object f(Shape a,Object b) { return a; }
+    public Object f(Object a,Shape b) { return a; }
+    public Object f(Shape a,Shape b) { return a; }
+    public Object f(Square a,Circle b) { return a; }
+    public Object f(Circle a,Square b) { return a; }
+  }
+
+  public static void main(String[] args) throws Exception {
+    MultiMethod mm=new MultiFactory().create(Host.class,"f",2);
+    BitMask mask=mm.hostDispatchEntry.visibility;
+    Object[] values={ new Square(), new Circle(), "s", 1,
+      new Square(), new Circle(), new Circle(), 2.5 };
+    int tuples=Integer.getInteger("tuples",8).intValue();
+
+    // fill the cache
+    for(int i=0;i<64;i++)
+      mm.invoke2(new Host(),values[i&7],values[(i>>3)&7]);
+
+    int calls=5000000;
+    for(int round=0;round<12;round++) {
+      Impl impl=mm.family.impl;
+      long start=System.nanoTime();
+      int sum=0;
+      for(int i=0;i<calls;i++) {
+        int j=i%tuples;
+        sum+=impl.getMethodIndex2(values[j&7],values[(j>>3)&7],mask);
+      }
+      long annotations=System.nanoTime()-start;
+
+      start=System.nanoTime();
+      for(int i=0;i<calls;i++) {
+        int j=i%tuples;
+        sum+=mm.tupleCache.get2(mask,values[j&7],values[(j>>3)&7]);
+      }
+      long cache=System.nanoTime()-start;
+
+      // the first rounds are the warm-up
+      if (round>=6)
+        System.out.println("annotations "+annotations/(double)calls+
+          " ns, cache "+cache/(double)calls+" ns "+sum);
+    }
+  }
+}
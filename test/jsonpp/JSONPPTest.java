@@ -1,13 +1,17 @@
 package jsonpp;
 
 import jsonpp.layout.CompactLayout;
+import jsonpp.layout.Layout;
 import static org.junit.Assert.assertEquals;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class JSONPPTest {
 	private JSONPP pp;
@@ -64,6 +68,96 @@ public class JSONPPTest {
 		ppCheck("[1,true,5.0]", set);
 	}
 
+	@Test
+	public void RenderStructuresNestedDeeperThanTheThreadStack() {
+		Object deep = new Object[0];
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			deep = new Object[] {deep};
+			expected.append('[');
+		}
+		expected.append("[]");
+		for (int i = 0; i < 100000; i++) {
+			expected.append(']');
+		}
+		ppCheck(expected.toString(), deep);
+	}
+
+	@Test
+	public void ReferenceContainersThatWerePrintedBefore() {
+		pp.setReferences(References.REFERENCE);
+		Map parent = m("name", "a");
+		parent.put("children", new Object[] {m("parent", parent)});
+		ppCheck("{name: 'a',children: [{parent: {$ref: '$'}}]}", parent);
+		Map shared = m("a", 1);
+		ppCheck("[{a: 1},{$ref: '$[0]'}]", new Object[] {shared, shared});
+	}
+
+	@Test(expected = PPException.class)
+	public void FailOnCycles() {
+		pp.setReferences(References.FAIL);
+		Map parent = m();
+		parent.put("self", parent);
+		pp.pp(parent);
+	}
+
+	@Test
+	public void FailOnlyOnCyclesNotOnSharedContainers() {
+		pp.setReferences(References.FAIL);
+		Map shared = m("a", 1);
+		ppCheck("[{a: 1},{a: 1}]", new Object[] {shared, shared});
+	}
+
+	@Test(expected = PPException.class)
+	public void FailWhenTheDepthBudgetIsExceeded() {
+		pp.setMaxDepth(1);
+		pp.pp(m("a", m("b", m("c", 1))));
+	}
+
+	@Test
+	public void RenderLargeContainersInParallelAsSequentially() {
+		List<Object> list = new ArrayList<Object>();
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+		for (int i = 0; i < 1000; i++) {
+			list.add(m("id", i, "tags", new Object[] {"a", i}));
+			map.put("k" + i, i % 2 == 0 ? i : m());
+		}
+		Object[] samples = {list, map, new Object[] {1, 2}, m()};
+		String[] expected = new String[samples.length];
+		for (int i = 0; i < samples.length; i++) {
+			pp.pp(samples[i]);
+			expected[i] = result.toString();
+			result.setLength(0);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			pp.setParallel(pool, 2);
+			for (int i = 0; i < samples.length; i++) {
+				ppCheck(expected[i], samples[i]);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void RenderEmptyContainersInParallelAsSequentially() {
+		pp = new JSONPP(new StringBufferWriter(result), new TestCodec(), new Layout());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			pp.setParallel(pool, 1);
+			ppCheck("[]", new ArrayList<Object>());
+			ppCheck("{}", m());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void RejectAParallelThresholdBelowOne() {
+		pp.setParallel(ForkJoinPool.commonPool(), 0);
+	}
+
 	private void ppCheck(String expected, Object object) {
 		result.setLength(0);
 		pp.pp(object);
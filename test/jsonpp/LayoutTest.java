@@ -1,7 +1,13 @@
 package jsonpp;
 
+import jsonpp.layout.Layout;
+import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 
 public class LayoutTest {
 	private StringBuffer result = new StringBuffer();
@@ -11,4 +17,14 @@ public class LayoutTest {
 	public void ControlIndentation() {
 		
 	}
+
+	@Test
+	public void IndentNestedStructuresOnePerLine() {
+		pp = new JSONPP(new StringBufferWriter(result), new TestCodec(), new Layout());
+		Map<Object, Object> m = new LinkedHashMap<Object, Object>();
+		m.put("a", Arrays.asList(1, 2));
+		m.put("b", new LinkedHashMap());
+		pp.pp(m);
+		assertEquals("{\n  a: [\n    1,\n    2\n  ],\n  b: {}\n}", result.toString());
+	}
 }
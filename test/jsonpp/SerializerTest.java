@@ -0,0 +1,328 @@
+package jsonpp;
+
+import jsonpp.encode.BeanCodec;
+import jsonpp.layout.CompactLayout;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SerializerTest {
+	private Serializer serializer = new Serializer(new TestCodec(), new CompactLayout());
+
+	@Test
+	public void ReuseOneSerializerForManyWriters() {
+		assertEquals("{foo: 'bar'}", pp(m("foo", "bar")));
+		assertEquals("[1,true]", pp(new Object[] {1, true}));
+	}
+
+	@Test
+	public void ShareOneSerializerBetweenThreads() throws Exception {
+		final Object graph = m("id", 1, "tags", Arrays.asList("a", 2.5, null), "nested", m("ok", true));
+		final String expected = "{id: 1,tags: ['a',2.5,null],nested: {ok: true}}";
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 8; t++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						for (int i = 0; i < 2000; i++) {
+							assertEquals(expected, pp(graph));
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertEquals(true, result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void PrintTheSameTextAsUtf8Bytes() throws Exception {
+		Object graph = m("caf\u00e9", Arrays.asList("\u20ac", 1, "\ud834\udd1e"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.pp(graph, out);
+		assertEquals(pp(graph), out.toString("UTF-8"));
+	}
+
+	@Test
+	public void PullTheTextInBoundedChunks() throws Exception {
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < 300; i++) {
+			list.add(m("id", i, "name", "caf\u00e9 \ud834\udd1e " + i, "tags", new Object[] {i, m()}));
+		}
+		String expected = pp(list);
+		for (int chunkSize : new int[] {1, 7, 100, 100000}) {
+			StringBuilder text = new StringBuilder();
+			CharChunks chars = serializer.chunks(list, chunkSize);
+			while (chars.hasNext()) {
+				CharBuffer chunk = chars.next();
+				assertTrue(chunk.remaining() <= chunkSize);
+				text.append(chunk);
+			}
+			assertEquals(expected, text.toString());
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ByteChunks utf8 = serializer.utf8Chunks(list, chunkSize);
+			while (utf8.hasNext()) {
+				ByteBuffer chunk = utf8.next();
+				assertTrue(chunk.remaining() <= chunkSize);
+				bytes.write(chunk.array(), chunk.position(), chunk.remaining());
+			}
+			assertEquals(expected, bytes.toString("UTF-8"));
+		}
+	}
+
+	@Test
+	public void RefuseAKeyCacheFilledByAnotherCodec() {
+		KeyCache cache = new KeyCache(16);
+		assertEquals("{foo: 'bar'}", pp(m("foo", "bar"), serializer.withKeyCache(cache)));
+		assertEquals(TestCodec.class, cache.getCodecClass());
+		serializer.withKeyCache(cache);
+		new Serializer(new TestCodec(), new CompactLayout()).withKeyCache(cache);
+		try {
+			new Serializer().withKeyCache(cache);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// DefaultCodec encodes keys another way
+		}
+	}
+
+	@Test
+	public void RejectAChunkSizeBelowOne() {
+		for (int chunkSize : new int[] {0, -1}) {
+			try {
+				serializer.chunks("text", chunkSize);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// no chunk could hold a char
+			}
+			try {
+				serializer.utf8Chunks("text", chunkSize);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// no chunk could hold a byte
+			}
+		}
+	}
+
+	@Test
+	public void QuoteAndEscapeStringsWithTheDefaultCodec() {
+		StringWriter writer = new StringWriter();
+		new Serializer().pp(Arrays.asList("a \"b\"", 'c'), writer);
+		assertEquals("[\n  \"a \\\"b\\\"\",\n  \"c\"\n]", writer.toString());
+	}
+
+	@Test
+	public void CopyCachedKeysWithTheSameText() throws Exception {
+		KeyCache cache = new KeyCache(16);
+		Serializer cached = serializer.withKeyCache(cache);
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			list.add(m("id", i, "caf\u00e9", true, i, "not cached", "key" + (i % 40), null));
+		}
+		StringWriter writer = new StringWriter();
+		cached.pp(list, writer);
+		assertEquals(pp(list), writer.toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cached.pp(list, out);
+		assertEquals(pp(list), out.toString("UTF-8"));
+
+		assertEquals(2 * 100 * 3, cache.getHits() + cache.getMisses());
+		assertTrue(cache.getHits() > 2 * 100);
+		assertTrue(cache.getEvictions() > 0);
+		assertTrue(cache.size() <= 16);
+	}
+
+	public static class SpellingCodec extends TestCodec {
+		public Iterator iterator(String s) {
+			List<Character> chars = new ArrayList<Character>();
+			for (char c : s.toCharArray()) {
+				chars.add(c);
+			}
+			return chars.iterator();
+		}
+
+		public Iterator iterator(Collection c) {
+			return c.size() > 3 ? null : c.iterator();
+		}
+
+		public String encodeValue(Boolean bool) {
+			return bool ? "yes" : "no";
+		}
+	}
+
+	@Test
+	public void ClassifyNodesWithTheOverridesOfTheCodec() {
+		Serializer spelling = new Serializer(new SpellingCodec(), new CompactLayout());
+		StringWriter writer = new StringWriter();
+		spelling.pp(m("ab", Arrays.asList(true, null, "hi"), "big", Arrays.asList(1, 2, 3, 4)), writer);
+		assertEquals("{ab: [yes,null,['h','i']],big: '[1, 2, 3, 4]'}", writer.toString());
+	}
+
+	@Test
+	public void CollectTheSerializersNoLongerUsed() throws Exception {
+		List<WeakReference<Object>> dropped = new ArrayList<WeakReference<Object>>();
+		for (int i = 0; i < 20; i++) {
+			TestCodec codec = new TestCodec();
+			Serializer serializer = new Serializer(codec, new CompactLayout());
+			StringWriter writer = new StringWriter();
+			// every kind of node, cached on JDK classes that are never unloaded
+			serializer.pp(m("s", "t", "n", 1, "b", true, "l", Arrays.asList(1.5, null)), writer);
+			assertEquals("{s: 't',n: 1,b: true,l: [1.5,null]}", writer.toString());
+			dropped.add(new WeakReference<Object>(codec));
+			dropped.add(new WeakReference<Object>(serializer));
+		}
+		for (int i = 0; i < 50 && !cleared(dropped); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(cleared(dropped));
+	}
+
+	public static class Pair {
+		public int a = 1;
+
+		public String getB() {
+			return "b";
+		}
+	}
+
+	public static class RenamingCodec extends BeanCodec {
+		public String encodeKey(String key) {
+			return "_" + key;
+		}
+
+		public Iterator<Map.Entry> entries(Pair pair) {
+			return ((Map) Collections.singletonMap("only", pair.a)).entrySet().iterator();
+		}
+	}
+
+	@Test
+	public void OpenBeansAndWriteStringKeysWithoutDispatch() {
+		Serializer beans = new Serializer(new BeanCodec(), new CompactLayout());
+		assertSame(NodeKind.BEAN_OPENER, beans.kinds.get(Pair.class).entries);
+		assertTrue(beans.kinds.keepsStringKeys);
+		assertEquals("[{a: 1,b: \"b\"},{k: 2}]", pp(Arrays.asList(new Pair(), m("k", 2)), beans));
+	}
+
+	@Test
+	public void CallTheOverridesOfABeanCodec() {
+		Serializer renaming = new Serializer(new RenamingCodec(), new CompactLayout());
+		assertSame(NodeKind.CODEC_OPENER, renaming.kinds.get(Pair.class).entries);
+		assertSame(NodeKind.BEAN_OPENER, renaming.kinds.get(TestCodec.class).entries);
+		assertFalse(renaming.kinds.keepsStringKeys);
+		assertEquals("[{_only: 1},{_k: 2}]", pp(Arrays.asList(new Pair(), m("k", 2)), renaming));
+	}
+
+	public static class PluginCodec extends TestCodec {
+		public String encodeValue(Boolean bool) {
+			return bool ? "on" : "off";
+		}
+	}
+
+	/**
+	 * Defines its own copy of PluginCodec, like a plugin host.
+	 */
+	static final class PluginLoader extends ClassLoader {
+		PluginLoader() {
+			super(SerializerTest.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(PluginCodec.class.getName())) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> type = findLoadedClass(name);
+				if (type == null) {
+					try (InputStream input = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+						byte[] bytes = input.readAllBytes();
+						type = defineClass(name, bytes, 0, bytes.length);
+					} catch (IOException e) {
+						throw new ClassNotFoundException(name, e);
+					}
+				}
+				return type;
+			}
+		}
+	}
+
+	@Test
+	public void CollectTheCodecsOfDroppedLoaders() throws Exception {
+		List<WeakReference<Object>> dropped = new ArrayList<WeakReference<Object>>();
+		for (int i = 0; i < 5; i++) {
+			dropped.add(new WeakReference<Object>(printWithPlugin()));
+		}
+		for (int i = 0; i < 50 && !cleared(dropped); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(cleared(dropped));
+	}
+
+	private static ClassLoader printWithPlugin() throws Exception {
+		ClassLoader loader = new PluginLoader();
+		Codec codec = (Codec) loader.loadClass(PluginCodec.class.getName()).getConstructor().newInstance();
+		assertNotSame(PluginCodec.class, codec.getClass());
+		// the codec declares the multi-methods of the serializer, created by the default factory
+		Serializer serializer = new Serializer(codec, new CompactLayout());
+		assertEquals("{s: 't',b: on,l: [1.5,null]}", pp(m("s", "t", "b", true, "l", Arrays.asList(1.5, null)), serializer));
+		return loader;
+	}
+
+	private static boolean cleared(List<WeakReference<Object>> references) {
+		for (WeakReference<Object> reference : references) {
+			if (reference.get() != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String pp(Object o) {
+		return pp(o, serializer);
+	}
+
+	private static String pp(Object o, Serializer serializer) {
+		StringWriter writer = new StringWriter();
+		serializer.pp(o, writer);
+		return writer.toString();
+	}
+
+	private static Map m(Object... elements) {
+		Map<Object, Object> m = new LinkedHashMap<Object, Object>();
+		for (int i = 0; i < elements.length; i += 2) {
+			m.put(elements[i], elements[i + 1]);
+		}
+		return m;
+	}
+}
@@ -0,0 +1,70 @@
+package jsonpp.encode;
+
+import jsonpp.Serializer;
+import jsonpp.layout.Layout;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures printing 50000 beans of four properties with the pretty layout, through
+ * generated accessors or method handles.
+ * <pre>
+ * java -cp build/classes:&lt;test classes&gt; jsonpp.encode.BeanCodecBench
+ * </pre>
+ */
+public class BeanCodecBench {
+	public static class Item {
+		public int id;
+		public String name;
+		public double score;
+		public boolean active;
+
+		Item(int i) {
+			id = i;
+			name = "item" + i;
+			score = i * 1.5;
+			active = (i & 1) == 0;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+	}
+
+	public static void main(String[] args) {
+		List<Object> beans = new ArrayList<Object>();
+		for (int i = 0; i < 50000; i++) {
+			beans.add(new Item(i));
+		}
+		Serializer generated = new Serializer(new BeanCodec(true), new Layout());
+		Serializer handles = new Serializer(new BeanCodec(false), new Layout());
+		for (Serializer serializer : new Serializer[] { handles, generated, handles, generated }) {
+			for (int round = 0; round < 15; round++) {
+				StringWriter writer = new StringWriter(1 << 23);
+				long start = System.nanoTime();
+				serializer.pp(beans, writer);
+				long elapsed = System.nanoTime() - start;
+
+				// the first rounds are the warm-up
+				if (round >= 12) {
+					System.out.println((serializer == generated ? "generated " : "handles   ") + elapsed / 1000000
+							+ " ms, " + writer.getBuffer().length() + " chars");
+				}
+			}
+		}
+	}
+}
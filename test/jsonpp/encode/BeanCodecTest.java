@@ -0,0 +1,151 @@
+package jsonpp.encode;
+
+import jsonpp.PPException;
+import jsonpp.Serializer;
+import jsonpp.layout.CompactLayout;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class BeanCodecTest {
+	private Serializer serializer = new Serializer(new BeanCodec(), new CompactLayout());
+
+	public static class Point {
+		public int x;
+		public int y;
+
+		public Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	public static class Shape {
+		public String hidden = "field shadowed by its getter";
+
+		public String getName() {
+			return "square";
+		}
+
+		public boolean isClosed() {
+			return true;
+		}
+
+		public List<Point> getCorners() {
+			return Arrays.asList(new Point(0, 0), new Point(1, 1));
+		}
+
+		public String getHidden() {
+			return "getter";
+		}
+
+		public static String getIgnored() {
+			return "static";
+		}
+
+		public String describe() {
+			return "not a property";
+		}
+	}
+
+	public static class Failing {
+		public String getBroken() throws Exception {
+			throw new Exception("broken");
+		}
+	}
+
+	public static class Empty {
+		@Override
+		public String toString() {
+			return "empty";
+		}
+	}
+
+	public static class Names extends ArrayList<String> {
+		public String getFirst() {
+			return get(0);
+		}
+	}
+
+	public static class Settings extends LinkedHashMap<String, Object> {
+		public boolean isDefault() {
+			return isEmpty();
+		}
+	}
+
+	@Test
+	public void PrintBeansAsMapsOfTheirProperties() {
+		assertEquals("{closed: true,corners: [{x: 0,y: 0},{x: 1,y: 1}],hidden: \"getter\",name: \"square\"}",
+				pp(new Shape()));
+	}
+
+	@Test
+	public void PrintJdkTypesAndObjectsWithoutPropertiesAsValues() {
+		assertEquals("[\"empty\",\"a\",1,{k: \"v\"}]",
+				pp(Arrays.asList(new Empty(), "a", 1, Collections.singletonMap("k", "v"))));
+	}
+
+	@Test
+	public void PrintUserDefinedSequencesAndMapsAsSuch() {
+		Names names = new Names();
+		names.add("x");
+		names.add("y");
+		Settings settings = new Settings();
+		settings.put("k", names);
+		assertEquals("[\"x\",\"y\"]", pp(names));
+		assertEquals("{k: [\"x\",\"y\"]}", pp(settings));
+		assertNull(BeanCodec.planFor(Names.class));
+	}
+
+	@Test
+	public void PrintBeansInParallelLikeSequentially() {
+		List<Object> beans = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			beans.add(new Point(i, -i));
+		}
+		Shape shape = new Shape();
+		String expected = pp(beans) + pp(shape);
+		Serializer parallel = serializer.withParallel(new ForkJoinPool(4), 2);
+		StringWriter writer = new StringWriter();
+		parallel.pp(beans, writer);
+		parallel.pp(shape, writer);
+		assertEquals(expected, writer.toString());
+	}
+
+	@Test
+	public void CallGettersThroughGeneratedHiddenClasses() {
+		BeanCodec.Plan plan = BeanCodec.planFor(Shape.class);
+		for (int i = 0; i < plan.size(); i++) {
+			assertTrue(plan.name(i), plan.accessors[i].getClass().isHidden());
+		}
+		StringWriter writer = new StringWriter();
+		new Serializer(new BeanCodec(false), new CompactLayout()).pp(new Shape(), writer);
+		assertEquals(pp(new Shape()), writer.toString());
+	}
+
+	@Test
+	public void WrapCheckedExceptionsOfGetters() {
+		try {
+			pp(new Failing());
+			fail();
+		} catch (PPException e) {
+			assertEquals("broken", e.getCause().getMessage());
+		}
+	}
+
+	private String pp(Object o) {
+		StringWriter writer = new StringWriter();
+		serializer.pp(o, writer);
+		return writer.toString();
+	}
+}
@@ -0,0 +1,53 @@
+package jsonpp.encode;
+
+import jsonpp.sink.StringBuilderSink;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NumberEncoderTest {
+
+	@Test
+	public void WriteIntegersLikeToString() {
+		Number[] numbers = {0, 7, -7, 10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+			Long.MIN_VALUE, 1000000000000000000L, -999999999999999999L, (short) -300, (byte) 12};
+		for (Number number : numbers) {
+			check(number);
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			check(random.nextLong() >> random.nextInt(64));
+		}
+	}
+
+	@Test
+	public void WriteDoublesAndFloatsLikeToString() {
+		Number[] numbers = {0.0, -0.0, 1.0, -1.0, 5.0, 1.5, 0.1, 9999999.0, 1e7, -1e7, 123456789.0, 1e-3, 1e-4,
+			Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MAX_VALUE, Double.MIN_VALUE,
+			0f, -0f, 3f, 2.5f, 1e7f, Float.NaN, 16777216f};
+		for (Number number : numbers) {
+			check(number);
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			check((double) (random.nextInt(20000000) - 10000000));
+			check(random.nextDouble() * random.nextInt());
+			check((float) random.nextInt(20000000));
+		}
+	}
+
+	@Test
+	public void WriteOtherNumbersLikeToString() {
+		check(new BigDecimal("12.50"));
+		check(new AtomicLong(42));
+	}
+
+	private void check(Number number) {
+		StringBuilder builder = new StringBuilder();
+		NumberEncoder.write(number, new StringBuilderSink(builder));
+		assertEquals(number.toString(), builder.toString());
+	}
+}
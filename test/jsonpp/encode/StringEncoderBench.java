@@ -0,0 +1,48 @@
+package jsonpp.encode;
+
+import java.io.Writer;
+
+import jsonpp.sink.WriterSink;
+
+/**
+ * Measures quote against String.format, on a short key and on a long value of 2400 chars.
+ * <pre>
+ * java -cp build/classes:&lt;test classes&gt; jsonpp.encode.StringEncoderBench
+ * </pre>
+ */
+public class StringEncoderBench {
+	public static void main(String[] args) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			builder.append("lorem ipsum ");
+		}
+		for (String s : new String[] { "name", builder.toString() }) {
+			int calls = s.length() < 10 ? 2000000 : 200000;
+			WriterSink sink = new WriterSink(Writer.nullWriter());
+			for (int round = 0; round < 5; round++) {
+				long start = System.nanoTime();
+				int length = 0;
+				for (int i = 0; i < calls; i++) {
+					length += String.format("\"%s\"", s).length();
+				}
+				long format = System.nanoTime() - start;
+				start = System.nanoTime();
+				for (int i = 0; i < calls; i++) {
+					length += StringEncoder.quote(s).length();
+				}
+				long quote = System.nanoTime() - start;
+				start = System.nanoTime();
+				for (int i = 0; i < calls; i++) {
+					StringEncoder.quote(s, sink);
+				}
+				long toSink = System.nanoTime() - start;
+
+				// the first rounds are the warm-up
+				if (round >= 3) {
+					System.out.printf("%d chars: String.format %.1f ns, quote %.1f ns, to a sink %.1f ns (%d)%n",
+							s.length(), format / (double) calls, quote / (double) calls, toSink / (double) calls, length);
+				}
+			}
+		}
+	}
+}
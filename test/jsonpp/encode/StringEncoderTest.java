@@ -0,0 +1,59 @@
+package jsonpp.encode;
+
+import jsonpp.sink.StringBuilderSink;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class StringEncoderTest {
+
+	@Test
+	public void LeavePlainStringsAlone() {
+		check("\"\"", "");
+		check("\"foo bar\"", "foo bar");
+		check("\"caf\u00e9\"", "caf\u00e9");
+	}
+
+	@Test
+	public void EscapeQuotesBackslashesAndControlCharacters() {
+		check("\"say \\\"hi\\\"\"", "say \"hi\"");
+		check("\"c:\\\\temp\"", "c:\\temp");
+		check("\"a\\nb\\tc\\r\\b\\f\"", "a\nb\tc\r\b\f");
+		check("\"\\u0000\\u001f\"", "\u0000\u001f");
+	}
+
+	@Test
+	public void EscapeJavascriptLineSeparators() {
+		check("\"a\\u2028b\\u2029\"", "a\u2028b\u2029");
+	}
+
+	@Test
+	public void EscapeAnywhereInLongStrings() {
+		String padding = "0123456789abcdef".repeat(70);
+		for (String c : new String[] { "\"", "\\", "\n", "\u0001", "\u001f", "\u2028", "\u2029" }) {
+			String escaped = StringEncoder.quote(c);
+			escaped = escaped.substring(1, escaped.length() - 1);
+			for (int at : new int[] { 0, 7, 8, 31, 32, 511, 512, 519, 1024, padding.length() }) {
+				String before = padding.substring(0, at);
+				String after = padding.substring(at);
+				check('"' + before + escaped + after + '"', before + c + after);
+				check('"' + before + escaped + after + escaped + '"', before + c + after + c);
+			}
+		}
+	}
+
+	@Test
+	public void LeaveCharsAboveLatin1AloneInLongStrings() {
+		String padding = "0123456789abcdef".repeat(70);
+		// their low bytes are a control char, a quote, a backslash and U+2028
+		String s = padding + "\u0100\u0122\u015c\u4e28" + padding + "\u00e9" + padding;
+		check('"' + s + '"', s);
+		check("\"" + s + "\\u2028\"", s + "\u2028");
+	}
+
+	private void check(String expected, String s) {
+		assertEquals(expected, StringEncoder.quote(s));
+		StringBuilder builder = new StringBuilder();
+		StringEncoder.quote(s, new StringBuilderSink(builder));
+		assertEquals(expected, builder.toString());
+	}
+}
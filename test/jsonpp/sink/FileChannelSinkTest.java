@@ -0,0 +1,88 @@
+package jsonpp.sink;
+
+import jsonpp.Serializer;
+import jsonpp.encode.DefaultCodec;
+import jsonpp.layout.Layout;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FileChannelSinkTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private Path file;
+	private String text;
+
+	@Before
+	public void create() throws Exception {
+		file = Files.createTempFile("jsonpp", ".json");
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			builder.append("{id: ").append(i).append(", name: \"caf\u00e9 ").append(i).append("\"},\n");
+		}
+		text = builder.toString();
+	}
+
+	@After
+	public void delete() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void WriteThroughADirectBuffer() throws Exception {
+		print();
+		assertArrayEquals(text.getBytes(UTF8), Files.readAllBytes(file));
+	}
+
+	@Test
+	public void TruncateALongerExistingFile() throws Exception {
+		Files.write(file, new byte[text.length() * 3]);
+		print();
+		assertArrayEquals(text.getBytes(UTF8), Files.readAllBytes(file));
+	}
+
+	@Test
+	public void PrintAGraphWithASerializer() throws Exception {
+		List<Object> records = new ArrayList<Object>();
+		for (int i = 0; i < 2000; i++) {
+			Map<Object, Object> record = new LinkedHashMap<Object, Object>();
+			record.put("id", i);
+			record.put("name", "caf\u00e9 " + i);
+			records.add(record);
+		}
+		Serializer serializer = new Serializer(new DefaultCodec(), new Layout());
+		StringWriter expected = new StringWriter();
+		serializer.pp(records, expected);
+
+		Files.write(file, new byte[expected.toString().length() * 2]);
+		FileChannelSink sink = FileChannelSink.open(file);
+		try {
+			serializer.pp(records, sink);
+		} finally {
+			sink.close();
+		}
+		assertEquals(expected.toString(), new String(Files.readAllBytes(file), UTF8));
+	}
+
+	private void print() throws Exception {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		FileChannelSink sink = new FileChannelSink(channel, 4096);
+		try {
+			sink.append(text);
+		} finally {
+			sink.close();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package jsonpp.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class Utf8SinkTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String TEXT = "{name: \"caf\u00e9\", yen: \"\u00a5\u20ac\", clef: \"\ud834\udd1e\", plain: \"ascii only\"}";
+
+	@Test
+	public void EncodeLikeTheStandardEncoder() {
+		for (int capacity : new int[] {4, 5, 7, 64, Utf8Sink.DEFAULT_CAPACITY}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			OutputStreamSink sink = new OutputStreamSink(out, capacity);
+			sink.append(TEXT);
+			sink.flush();
+			assertArrayEquals("capacity " + capacity, TEXT.getBytes(UTF8), out.toByteArray());
+		}
+	}
+
+	@Test
+	public void EncodeSurrogatePairsSplitAcrossAppends() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStreamSink sink = new OutputStreamSink(out, 8);
+		char[] chars = TEXT.toCharArray();
+		for (int i = 0; i < chars.length; i += 3) {
+			sink.append(chars, i, Math.min(3, chars.length - i));
+		}
+		sink.flush();
+		assertArrayEquals(TEXT.getBytes(UTF8), out.toByteArray());
+	}
+
+	@Test
+	public void ReplaceUnpairedSurrogates() {
+		String text = "a\udd1eb\ud834c\ud834";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStreamSink sink = new OutputStreamSink(out);
+		for (char c : text.toCharArray()) {
+			sink.append(c);
+		}
+		sink.flush();
+		assertArrayEquals(text.getBytes(UTF8), out.toByteArray());
+	}
+
+	@Test
+	public void WriteIntoAByteArray() {
+		byte[] bytes = new byte[256];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		ByteBufferSink sink = new ByteBufferSink(buffer);
+		sink.append(TEXT);
+		sink.flush();
+		assertArrayEquals(TEXT.getBytes(UTF8), Arrays.copyOf(bytes, buffer.position()));
+	}
+}
@@ -0,0 +1,59 @@
+package jsonpp.util;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class MethodBoxTest {
+
+	public static class Describer {
+		public String describe(Object o) {
+			return "object";
+		}
+
+		public String describe(Number n) {
+			return "number";
+		}
+
+		public String describe(String s) {
+			return "string " + s;
+		}
+
+		public String describe(Exception e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	@Test
+	public void CacheTheMethodsOfTheFirstArgumentClasses() {
+		MethodBox<String> box = MethodBox.mm(new Describer(), "describe");
+		assertEquals(0, box.getCachedClassCount());
+		for (int i = 0; i < 3; i++) {
+			assertEquals("number", box.call(i));
+			assertEquals("string a", box.call("a"));
+		}
+		assertEquals(2, box.getCachedClassCount());
+		assertEquals(2, box.getCacheMisses());
+		assertEquals(4, box.getCacheHits());
+	}
+
+	@Test
+	public void GoMegamorphicPastTheLimit() {
+		MethodBox<String> box = MethodBox.mm(new Describer(), "describe");
+		Object[] values = {1, 2L, 3.0, 4f, (short) 5, (byte) 6, "7", '8', true, new Object()};
+		for (Object value : values) {
+			box.call(value);
+		}
+		assertEquals(-1, box.getCachedClassCount());
+		assertEquals("object", box.call(true));
+		assertEquals("number", box.call(1));
+		// the tenth class was already dispatched without the cache
+		assertEquals(3, box.getMegamorphicCalls());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void RethrowRuntimeExceptionsOfCachedMethods() {
+		MethodBox<String> box = MethodBox.mm(new Describer(), "describe");
+		box.call(new Exception("cached"));
+		box.call(new Exception("again"));
+	}
+}